@@ -0,0 +1,117 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2016 Rafael Afonso Rodrigues
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+**/
+
+package domobus.communications;
+
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * @author Rafael Afonso Rodrigues
+ */
+public class AdmissionControl {
+    
+    private double appRate;
+    private double addressRate;
+    private double burst;
+    private int maxSources;
+    private ConcurrentMap<Integer, Source> applications;
+    private ConcurrentMap<InetAddress, Source> addresses;
+    //shared by sources beyond the tracked maximum, so spoofed ones can't grow the maps
+    private Source others;
+    
+    //Rates are in datagrams per second, a source may exceed them by up to burst datagrams
+    public AdmissionControl(double appRate, double addressRate, double burst, int maxSources) {
+        this.appRate = appRate;
+        this.addressRate = addressRate;
+        this.burst = burst;
+        this.maxSources = maxSources;
+        this.applications = new ConcurrentHashMap<>();
+        this.addresses = new ConcurrentHashMap<>();
+        this.others = new Source(addressRate, burst);
+    };
+    
+    //Whether a datagram is let through, checked against its address first and then against its claimed Supervisor if known
+    public boolean Admit(int appId, boolean known, InetAddress address) {
+        Source source = addresses.get(address);
+        if(source == null) source = Track(addresses, address, addressRate);
+        if(!source.Admit()) return false;
+        
+        //unknown appIds are only limited by their address
+        if(!known) return true;
+        source = applications.get(appId);
+        if(source == null) source = Track(applications, appId, appRate);
+        return source.Admit();
+    };
+    
+    private <K> Source Track(ConcurrentMap<K, Source> sources, K key, double rate) {
+        if(sources.size() >= maxSources) return others;
+        Source created = new Source(rate, burst);
+        Source existing = sources.putIfAbsent(key, created);
+        return existing == null ? created : existing;
+    };
+    
+    public long GetDropped(int appId) {
+        Source source = applications.get(appId);
+        return source == null ? 0 : source.dropped.get();
+    };
+    
+    public long GetDropped(InetAddress address) {
+        Source source = addresses.get(address);
+        return source == null ? 0 : source.dropped.get();
+    };
+    
+    //Log every source that had datagrams dropped
+    public void LogDrops(Manager manager) {
+        for(Map.Entry<Integer, Source> entry: applications.entrySet()) {
+            long dropped = entry.getValue().dropped.get();
+            if(dropped > 0) manager.Log(Globals.LogType.SYSTEM, "Admission control dropped "+dropped+" datagrams from Supervisor "+entry.getKey());
+        }
+        for(Map.Entry<InetAddress, Source> entry: addresses.entrySet()) {
+            long dropped = entry.getValue().dropped.get();
+            if(dropped > 0) manager.Log(Globals.LogType.SYSTEM, "Admission control dropped "+dropped+" datagrams from "+entry.getKey().getHostAddress());
+        }
+        if(others.dropped.get() > 0) manager.Log(Globals.LogType.SYSTEM, "Admission control dropped "+others.dropped.get()+" datagrams from untracked sources");
+    };
+    
+    private static class Source {
+        TokenBucket bucket;
+        AtomicLong dropped;
+        
+        public Source(double rate, double burst) {
+            this.bucket = new TokenBucket(rate, burst);
+            this.dropped = new AtomicLong();
+        };
+        
+        public boolean Admit() {
+            if(bucket.TryAcquire()) return true;
+            dropped.incrementAndGet();
+            return false;
+        };
+    }
+}
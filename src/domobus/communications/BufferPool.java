@@ -0,0 +1,108 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2016 Rafael Afonso Rodrigues
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+**/
+
+package domobus.communications;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * @author Rafael Afonso Rodrigues
+ */
+public class BufferPool {
+    
+    private ArrayBlockingQueue<PacketBuffer> free;
+    private int bufferSize;
+    private boolean tracking;
+    private Set<PacketBuffer> outstanding;
+    private AtomicLong acquired;
+    private AtomicLong released;
+    private AtomicLong allocated;
+    
+    //Up to capacity released buffers are kept for reuse, tracking remembers who holds the others
+    public BufferPool(int capacity, int bufferSize, boolean tracking) {
+        this.free = new ArrayBlockingQueue<>(capacity);
+        this.bufferSize = bufferSize;
+        this.tracking = tracking;
+        if(tracking) this.outstanding = Collections.newSetFromMap(new ConcurrentHashMap<PacketBuffer, Boolean>());
+        this.acquired = new AtomicLong();
+        this.released = new AtomicLong();
+        this.allocated = new AtomicLong();
+    };
+    
+    //Take a buffer, allocating one only if none is free
+    public PacketBuffer Acquire() {
+        PacketBuffer buffer = free.poll();
+        if(buffer == null) {
+            buffer = new PacketBuffer(this, bufferSize);
+            allocated.incrementAndGet();
+        }
+        buffer.Acquired();
+        acquired.incrementAndGet();
+        
+        if(tracking) {
+            buffer.origin = new Throwable("PacketBuffer acquired here");
+            outstanding.add(buffer);
+        }
+        return buffer;
+    };
+    
+    void Recycle(PacketBuffer buffer) {
+        released.incrementAndGet();
+        if(tracking) {
+            buffer.origin = null;
+            outstanding.remove(buffer);
+        }
+        //beyond capacity the buffer is left to the garbage collector
+        free.offer(buffer);
+    };
+    
+    //Buffers taken and not yet released
+    public long GetOutstanding() {
+        return acquired.get() - released.get();
+    };
+    
+    public long GetAllocated() {
+        return allocated.get();
+    };
+    
+    //Log buffers still held beyond those of receive loops still waiting for a datagram, with where they were acquired when tracking
+    public void ReportLeaks(Manager manager, int receiving) {
+        long held = GetOutstanding() - receiving;
+        if(held <= 0) return;
+        manager.Log(Globals.LogType.ERROR, "BufferPool\t"+held+" packet buffers were never released.");
+        if(!tracking) return;
+        for(PacketBuffer buffer: outstanding) {
+            Throwable origin = buffer.origin;
+            if(origin == null) continue;
+            StringBuilder trace = new StringBuilder();
+            for(StackTraceElement frame: origin.getStackTrace()) trace.append("\n\tat ").append(frame);
+            manager.Log(Globals.LogType.ERROR, "BufferPool\tleaked buffer acquired"+trace);
+        }
+    };
+}
@@ -0,0 +1,159 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2016 Rafael Afonso Rodrigues
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+**/
+
+package domobus.communications;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ *
+ * @author Rafael Afonso Rodrigues
+ */
+public class CallbackExecutor {
+    
+    private ThreadFactory factory;
+    private boolean virtual;
+    private Semaphore[] permits;
+    //callbacks waiting behind a running one from the same Supervisor, only origins with one running have a lane
+    private final Map<Integer, ArrayDeque<Runnable>> lanes;
+    
+    //limits are given for GET, SET, EXEC and RESERVED operations, in that order
+    public CallbackExecutor(int[] limits) {
+        this.permits = new Semaphore[4];
+        for(int i = 0; i < permits.length; i++) permits[i] = new Semaphore(limits[i]);
+        this.lanes = new HashMap<>();
+        
+        //prefer virtual threads whenever the running JVM provides them
+        this.factory = VirtualThreadFactory();
+        this.virtual = factory != null;
+        if(!virtual) this.factory = new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "Callback");
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    };
+    
+    public boolean IsVirtual() {
+        return virtual;
+    };
+    
+    //Runs the task on its own thread, blocking the caller while the operation's limit is reached.
+    //Tasks from the same Supervisor run one at a time in arrival order, those of different Supervisors concurrently
+    public void Execute(final int appId, int operation, final Runnable task) {
+        final Semaphore permit = permits[Slot(operation)];
+        permit.acquireUninterruptibly();
+        Runnable limited = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } finally {
+                    permit.release();
+                }
+            }
+        };
+        
+        synchronized(lanes) {
+            ArrayDeque<Runnable> lane = lanes.get(appId);
+            if(lane != null) {
+                //the running thread of this Supervisor picks it up
+                lane.add(limited);
+                return;
+            }
+            lane = new ArrayDeque<>();
+            lane.add(limited);
+            lanes.put(appId, lane);
+        }
+        
+        try {
+            factory.newThread(new Runnable() {
+                @Override
+                public void run() {
+                    Drain(appId);
+                }
+            }).start();
+        } catch(RuntimeException ex) {
+            synchronized(lanes) {
+                lanes.remove(appId);
+            }
+            permit.release();
+            throw ex;
+        }
+    };
+    
+    //Runs a Supervisor's tasks until its lane is empty, then drops the lane
+    private void Drain(int appId) {
+        while(true) {
+            Runnable next;
+            synchronized(lanes) {
+                ArrayDeque<Runnable> lane = lanes.get(appId);
+                next = lane.peek();
+                if(next == null) {
+                    lanes.remove(appId);
+                    return;
+                }
+            }
+            try {
+                next.run();
+            } catch(RuntimeException ex) {
+                //report it as an uncaught exception would be, without stranding the tasks behind it
+                Thread current = Thread.currentThread();
+                current.getUncaughtExceptionHandler().uncaughtException(current, ex);
+            }
+            synchronized(lanes) {
+                lanes.get(appId).poll();
+            }
+        }
+    };
+    
+    private static int Slot(int operation) {
+        switch(operation) {
+            case Globals.GET_OPERATION:
+                return 0;
+            case Globals.SET_OPERATION:
+                return 1;
+            case Globals.EXEC_OPERATION:
+                return 2;
+            default:
+                return 3;
+        }
+    };
+    
+    private static ThreadFactory VirtualThreadFactory() {
+        try {
+            //Thread.ofVirtual().factory(), looked up at runtime as it requires Java 21
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch(ReflectiveOperationException | RuntimeException ex) {
+            return null;
+        }
+    };
+}
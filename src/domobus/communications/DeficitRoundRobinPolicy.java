@@ -0,0 +1,79 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2016 Rafael Afonso Rodrigues
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+**/
+
+package domobus.communications;
+
+/**
+ *
+ * @author Rafael Afonso Rodrigues
+ */
+public class DeficitRoundRobinPolicy implements SchedulingPolicy {
+    
+    private int priorityQuantum;
+    private int normalQuantum;
+    private int priorityDeficit;
+    private int normalDeficit;
+    private boolean priorityTurn;
+    
+    //quantums are given in bytes of packets served per round
+    public DeficitRoundRobinPolicy(int priorityQuantum, int normalQuantum) {
+        this.priorityQuantum = Math.max(1, priorityQuantum);
+        this.normalQuantum = Math.max(1, normalQuantum);
+        this.priorityDeficit = this.priorityQuantum;
+        this.priorityTurn = true;
+    };
+    
+    @Override
+    public boolean ServePriority(int priorityHead, int normalHead) {
+        //an idle lane doesn't accumulate credit
+        if(normalHead == 0) {
+            normalDeficit = 0;
+            return true;
+        }
+        if(priorityHead == 0) {
+            priorityDeficit = 0;
+            return false;
+        }
+        
+        //serve the current lane while its deficit covers the next packet, then hand over the turn
+        while(true) {
+            if(priorityTurn) {
+                if(priorityHead <= priorityDeficit) {
+                    priorityDeficit -= priorityHead;
+                    return true;
+                }
+                priorityTurn = false;
+                normalDeficit += normalQuantum;
+            }
+            else {
+                if(normalHead <= normalDeficit) {
+                    normalDeficit -= normalHead;
+                    return false;
+                }
+                priorityTurn = true;
+                priorityDeficit += priorityQuantum;
+            }
+        }
+    };
+}
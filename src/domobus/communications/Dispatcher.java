@@ -24,33 +24,96 @@
 
 package domobus.communications;
 
-import java.util.Arrays;
-import java.util.ConcurrentModificationException;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
-import java.util.Map;
-import java.util.NoSuchElementException;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 public class Dispatcher extends Thread{
     
-    private boolean dispatching;
+    private volatile boolean dispatching;
     private Manager manager;
-    private Map<String, Integer> retransmissionQueue;
-    private Map<String, Long> retransmissionTime;
-    private Map<String, byte[]> messageList;
+    private InFlightRegistry inFlight;
+    private ConcurrentHashMap<Integer, PeerState> peers;
+    private int initialWindow;
+    private int maxWindow;
+    private long minTimeout;
+    private long maxTimeout;
+    private long maxBackoff;
+    private TokenBucket retryBudget;
+    private int[] healthThresholds;
+    private double retryRatio;
+    private volatile long retransmissions;
+    private volatile long deferredRetransmissions;
+    private volatile long droppedMessages;
     
     public Dispatcher(Manager manager) {
         this.dispatching = true;        
         this.manager = manager;       
-        this.retransmissionQueue = new LinkedHashMap<>();
-        this.retransmissionTime = new LinkedHashMap<>();
-        this.messageList = new HashMap<>();
+        this.inFlight = new InFlightRegistry(Globals.INFLIGHT_STRIPES, new TimerWheel(Globals.TIMER_WHEEL_SIZE, Globals.TIMER_TICK));
+        this.peers = new ConcurrentHashMap<>();
+        this.initialWindow = Globals.INITIAL_WINDOW;
+        this.maxWindow = Globals.MAX_WINDOW;
+        this.minTimeout = Globals.MIN_RETRANSMISSION_TIMEOUT;
+        this.maxTimeout = Globals.MAX_RETRANSMISSION_TIMEOUT;
+        this.maxBackoff = Globals.MAX_BACKOFF;
+        SetRetryBudget(Globals.RETRY_BUDGET_RATIO, Globals.RETRY_BUDGET_RATE);
+        this.healthThresholds = new int[]{Globals.SUSPECT_FAILURES, Globals.DOWN_FAILURES, Globals.BREAKER_OPEN_DURATION};
+    };
+    
+    public void SetHealthThresholds(int suspectAfter, int downAfter, int openDuration) {
+        this.healthThresholds = new int[]{suspectAfter, downAfter, openDuration};
+    };
+    
+    public void SetCongestionWindow(int initialWindow, int maxWindow) {
+        this.initialWindow = initialWindow;
+        this.maxWindow = maxWindow;
+    };
+    
+    //Retransmission timeouts adapt to each destination within these bounds, in milliseconds
+    public void SetRetransmissionTimeout(long minTimeout, long maxTimeout) {
+        this.minTimeout = minTimeout;
+        this.maxTimeout = maxTimeout;
+    };
+    
+    //Retransmissions back off exponentially up to this delay, in milliseconds
+    public void SetMaxBackoff(long maxBackoff) {
+        this.maxBackoff = maxBackoff;
+    };
+    
+    //Retransmissions are limited node-wide to a percentage of first transmissions plus a steady rate per second
+    public void SetRetryBudget(int ratio, int rate) {
+        this.retryRatio = ratio/100.0;
+        this.retryBudget = new TokenBucket(rate, Math.max(rate, Globals.RETRY_BUDGET_BURST));
+    };
+    
+    public long GetRetransmissions() {
+        return retransmissions;
+    };
+    
+    public long GetDeferredRetransmissions() {
+        return deferredRetransmissions;
+    };
+    
+    public long GetDroppedMessages() {
+        return droppedMessages;
+    };
+    
+    public PeerState GetPeerState(int appId) {
+        PeerState state = peers.get(appId);
+        if(state == null) {
+            PeerState created = new PeerState(appId, initialWindow, maxWindow, minTimeout, maxTimeout);
+            created.SetHealthThresholds(healthThresholds[0], healthThresholds[1], healthThresholds[2]);
+            state = peers.putIfAbsent(appId, created);
+            if(state == null) state = created;
+        }
+        return state;
     };
     
     public void Stop() {
-        dispatching = false;        
+        dispatching = false;
+        inFlight.Close();
         System.out.println("Stopping Dispatcher.");
     };
     
@@ -58,97 +121,110 @@ public class Dispatcher extends Thread{
     public void run() {
         manager.Log(Globals.LogType.SYSTEM, "Dispatcher running.");
         
+        List<TimerWheel.Timeout> due = new ArrayList<>();
         while(dispatching) {
-            try {
-                long now = System.currentTimeMillis();
-                
-                //get next message
-                String next = retransmissionTime.keySet().iterator().next();
-                if (retransmissionTime.get(next) > now) continue; //still too early to resend
+            //sleep until retransmissions are due, then resend all of them
+            if(!inFlight.Expire(due)) break; //dispatcher stopped
+            
+            for(TimerWheel.Timeout timeout: due) {
+                InFlight next = (InFlight) timeout;
+                if(!inFlight.Contains(next)) continue; //response received meanwhile
                 
-                retransmissionTime.remove(next);
-                byte[] message = messageList.get(next);
+                //out of retry budget, put it off so retransmissions can't starve live traffic
+                if(!retryBudget.TryAcquire()) {
+                    if(inFlight.Reschedule(next, Jitter(TimeUnit.MILLISECONDS.toNanos(GetPeerState(next.appId).GetRetransmissionTimeout())))) deferredRetransmissions++;
+                    continue;
+                }
                 
-                //retrieve destinatary
-                int appId = Globals.BytesToInt(message, 1);
+                //a command left unanswered counts against its destination's health
+                if(IsCommand(next.message)) {
+                    int health = GetPeerState(next.appId).Failed();
+                    if(health == PeerState.DOWN) manager.Log(Globals.LogType.ERROR, "Supervisor "+next.appId+" is down, commands to it will fail fast.");
+                }
+                retransmissions++;
                 
                 //send message
-                manager.Log(Globals.LogType.COMMAND, "Retransmitting message to Supervisor "+appId+": "+message);
-                SendMessage(appId, next, message, true);
-                
-            }catch(NoSuchElementException | NullPointerException | ConcurrentModificationException ex) {
-                try {
-                    //retransmission queue is empty
-                    Thread.sleep(Globals.VACATION_DURATION);
-                } catch (InterruptedException ex1) {
-                    manager.Log(Globals.LogType.ERROR, "DispatcherVacationException\t"+ex1);
-                }
+                manager.Log(Globals.LogType.COMMAND, "Retransmitting message "+next.message[5]+" to Supervisor "+next.appId);
+                SendMessage(next.appId, next.message, true);
             }
+            due.clear();
         }
-        manager.Log(Globals.LogType.SYSTEM, "Dispatcher stopped.");
+        manager.Log(Globals.LogType.SYSTEM, "Dispatcher stopped after "+retransmissions+" retransmissions, "+deferredRetransmissions+" deferred for lack of retry budget, "+droppedMessages+" messages dropped after exhausting their retries.");
     };
     
     //Handle a new message received
     public void NewMessage(int appId, byte[] packet) {
-        if (Globals.CKS(Arrays.copyOf(packet, packet.length-1)) != packet[packet.length-1]) return; //bad checksum, discard packet
-        if (packet.length != (short)packet[0]) return; //length doesn't match, discard packet
+        NewMessage(appId, packet, 0, packet.length);
+    };
+    
+    //Handle a message found in place within a received datagram, the bytes are only read until this returns
+    public void NewMessage(int appId, byte[] data, int offset, int length) {
+        if (Globals.CKS(data, offset, length-1) != data[offset+length-1]) return; //bad checksum, discard packet
+        if (length != (data[offset] & 0xFF)) return; //length doesn't match, discard packet
         
-        int dest = Globals.BytesToInt(packet, 1);
+        int dest = Globals.BytesToInt(data, offset+1);
         if (manager.SelfId() != dest) return; //wrong destinatary, discard packet
         
-        String msgId = ""+appId+packet[5];
+        //responses answer the command we sent with the same sequence number
+        long key = InFlight.Key(appId, data[offset+5], false);
+        
+        //the Supervisor is alive
+        if(GetPeerState(appId).Succeeded() != PeerState.UP) manager.Log(Globals.LogType.SYSTEM, "Supervisor "+appId+" is up again.");
         
         //Response received
-        if(manager.HasSequence(appId, packet[5])) {
+        if(manager.HasSequence(appId, data[offset+5])) {
             //acknowledge flag      
-            if(Globals.IsBitSet(packet[6], Globals.ACK_POS) && !Globals.IsBitSet(packet[6], Globals.ERROR_POS)) {
+            if(Globals.IsBitSet(data[offset+6], Globals.ACK_POS) && !Globals.IsBitSet(data[offset+6], Globals.ERROR_POS)) {
                 manager.Log(Globals.LogType.COMMAND, "received new response from Supervisor "+appId);
-                retransmissionTime.remove(msgId);
-                retransmissionQueue.remove(msgId);
-                messageList.remove(msgId);
-                manager.RemoveSequence(appId, packet[5]);
+                InFlight sent = Answered(appId, key);
+                manager.RemoveSequence(appId, data[offset+5]);
+                
+                //our command was acknowledged, widen its destination's window
+                if(sent != null && IsCommand(sent.message)) Completed(appId, sent.message[5], true);
                 
                 //add to processing queue
-                manager.AddMessage(Globals.IsBitSet(packet[6], Globals.PRIORITY_POS), packet);
+                manager.AddMessage(Globals.IsBitSet(data[offset+6], Globals.PRIORITY_POS), data, offset, length);
                 return;
             }
             
             //error flag
-            else if(Globals.IsBitSet(packet[6], Globals.ACK_POS) && Globals.IsBitSet(packet[6], Globals.ERROR_POS)) {
+            else if(Globals.IsBitSet(data[offset+6], Globals.ACK_POS) && Globals.IsBitSet(data[offset+6], Globals.ERROR_POS)) {
                 manager.Log(Globals.LogType.COMMAND, "received new error response from Supervisor "+appId);
-                byte[] message;
                 
-                if (packet[7] == Globals.ERROR_QUEUES_FULL) return; //queues full, leave for retransmission
+                if (data[offset+7] == Globals.ERROR_QUEUES_FULL) {
+                    //queues full, back off and leave for retransmission, once for each refusal
+                    if(Globals.IsBitSet(data[offset+6], Globals.RETRANSMISSION_POS)) return;
+                    if(GetPeerState(appId).Congested()) manager.Log(Globals.LogType.COMMAND, "Supervisor "+appId+" is congested, reduced its window to "+GetPeerState(appId).GetWindow()+" messages");
+                    return;
+                }
                 
-                retransmissionTime.remove(msgId);
-                retransmissionQueue.remove(msgId);
-                manager.RemoveSequence(appId, packet[5]);
+                InFlight sent = Answered(appId, key);
+                byte[] message = sent == null ? null : sent.message;
+                manager.RemoveSequence(appId, data[offset+5]);
                 
-                switch(packet[7]) {                        
+                switch(data[offset+7]) {                        
                     case Globals.ERROR_UNSUPPORTED_COMMAND:                        
                         //command not supported, call Error method from API
-                        message = messageList.get(msgId);
                         manager.DComm_callback_process_ERROR(Globals.ERROR_UNSUPPORTED_COMMAND, message);
                         break;
                         
                     case Globals.ERROR_GET_COMMAND | Globals.ERROR_SET_COMMAND | Globals.ERROR_NOTIFY_COMMAND | Globals.ERROR_EXEC_COMMAND | Globals.ERROR_RESERVED_COMMAND:
                         //error response to a command sent, call Error method from API
-                        message = messageList.get(msgId);
-                        manager.DComm_callback_process_ERROR(packet[7], message);
+                        manager.DComm_callback_process_ERROR(data[offset+7], message);
                         break;
                         
                     default:
                         //unrecognized error code, let worker handle the response
-                        manager.AddMessage(Globals.IsBitSet(packet[6], Globals.PRIORITY_POS), packet);
+                        manager.AddMessage(Globals.IsBitSet(data[offset+6], Globals.PRIORITY_POS), data, offset, length);
                         break;
                 }
                 
-                messageList.remove(msgId);
+                if(IsCommand(message)) Completed(appId, message[5], false);
                 return;
             }
             
             //retransmission flag, discard
-            else if(Globals.IsBitSet(packet[6], Globals.RETRANSMISSION_POS)) {
+            else if(Globals.IsBitSet(data[offset+6], Globals.RETRANSMISSION_POS)) {
                 manager.Log(Globals.LogType.COMMAND, "discarded retransmitted command from Supervisor "+appId);
                 return;
             }
@@ -160,10 +236,10 @@ public class Dispatcher extends Thread{
             }                    
         }
         //invalid sequence number, discard
-        if (packet[5] < manager.GetSequence(appId, false)) return;
+        if (data[offset+5] < manager.GetSequence(appId, false)) return;
         
         //New command received, add packet to processing queue while checking its priority bit
-        if(!manager.AddMessage(Globals.IsBitSet(packet[6], Globals.PRIORITY_POS), packet)) {
+        if(!manager.AddMessage(Globals.IsBitSet(data[offset+6], Globals.PRIORITY_POS), data, offset, length)) {
             //queues are full, reply with error and discard packet
             byte[] res = new byte[9];
             res[0] = 9;
@@ -173,105 +249,129 @@ public class Dispatcher extends Thread{
             Globals.IntToBytes(manager.SelfId(), 3, res);
             
             //set same sequence number
-            res[5] = packet[5];
+            res[5] = data[offset+5];
             
             //set CTR field and error code
             res[6] = (byte) (Globals.CTR + Globals.ACK_CTR + Globals.ERROR_CTR);
             res[7] = (byte) Globals.ERROR_QUEUES_FULL;
             
             //set CRC
-            res[8] = Globals.CKS(Arrays.copyOf(res, 8));
+            res[8] = Globals.CKS(res, 0, 8);
             
-            SendMessage(appId, msgId, res, false);
+            //sent once, the command's own retransmission brings a new reply if the queues are still full
+            if(!manager.SendTo(appId, res)) manager.Log(Globals.LogType.COMMAND, "failed to transmit message to Supervisor "+appId);
             return;
         }
         manager.Log(Globals.LogType.COMMAND, "received new command from Supervisor "+appId);
-        manager.NewSequence(appId, packet[5]);
+        manager.NewSequence(appId, data[offset+5]);
     };
     
     //Transmit a new message
-    public void SendMessage(int appId, String msgId, byte[] message, boolean retransmission) {
+    public void SendMessage(int appId, byte[] message, boolean retransmission) {
+        //the Senders read queued messages later on, while Track marks the kept one as a retransmission.
+        //The first transmission goes out as a copy, kept messages aren't changed once tracked
+        byte[] outgoing = message;
+        if(!retransmission) {
+            outgoing = message.clone();
+            //keep the message until a response arrives or retries are exhausted, whether it is sent or not
+            Track(appId, message);
+        }
+        
         try {
             //send message
-            if(!manager.SendTo(appId, message)) {
-                final int id = appId;
-                //application not found, sending a DNS request instead
-                Timer dnsTask = new Timer();
-                dnsTask.schedule(new TimerTask() {
-                    @Override
-                    public void run() {
-                        manager.DNSRequest(id);
-                    }
-                }, 0);
-                throw new Exception();
-            }
-            
-            //adding message to retransmission queue, awaiting response
-            if(retransmission) {
-                //update number of retries
-                retransmissionQueue.put(msgId, retransmissionQueue.get(msgId)-1);
-                
-                if (retransmissionQueue.get(msgId) == 0) {
-                    //maximum retries made, drop message
-                    retransmissionQueue.remove(msgId);
-                    messageList.remove(msgId);
-                    manager.RemoveSequence(appId, message[5]);
-                    //inform supervisor if this isn't a response message and we haven't received a response so far
-                    if(!Globals.IsBitSet(message[6], Globals.ACK_POS) && !Globals.IsBitSet(message[6], Globals.ERROR_POS) && manager.HasSequence(appId, message[5])) manager.DComm_callback_process_ERROR(Globals.ERROR_TRANSMISSION_FAILED, message);
-                }
-                else retransmissionTime.put(msgId, System.currentTimeMillis()+Globals.RESTRANSMISSION_PERIOD); //set time of next retry
-            }
-            else {
-                //toggle retransmission bit of CTR field
-                message[6] = (byte) (message[6] + Globals.RETRANSMISSION_CTR);
-                //update CRC
-                message[message.length-1] = Globals.CKS(Arrays.copyOf(message, message.length-1));
-
-                //put message up for retransmission
-                manager.AddSequence(appId, message[5]);
-                messageList.put(msgId, message);
-                retransmissionQueue.put(msgId, Globals.MAX_RETRANSMISSIONS);
-                retransmissionTime.put(msgId, System.currentTimeMillis()+Globals.RESTRANSMISSION_PERIOD);
-            }
+            //unknown applications are parked by the Manager until resolved
+            if(!manager.SendTo(appId, outgoing)) throw new Exception();
         } catch (Exception ex) {
             //failed to send message
             manager.Log(Globals.LogType.COMMAND, "failed to transmit message to Supervisor "+appId);
-            
-            if(retransmission) {
-                //if it was already a retransmission, update number of retries made
-                retransmissionQueue.put(msgId, retransmissionQueue.get(msgId)-1);
-                
-                if (retransmissionQueue.get(msgId) == 0) {
-                    //maximum retries made, drop message
-                    retransmissionQueue.remove(msgId);
-                    messageList.remove(msgId);
-                    manager.RemoveSequence(appId, message[5]);
-                    //inform supervisor if this isn't a response message and we haven't received a response so far
-                    if(!Globals.IsBitSet(message[6], Globals.ACK_POS) && !Globals.IsBitSet(message[6], Globals.ERROR_POS) && manager.HasSequence(appId, message[5])) manager.DComm_callback_process_ERROR(Globals.ERROR_TRANSMISSION_FAILED, message);
-                }
-                else retransmissionTime.put(msgId, System.currentTimeMillis()+Globals.RESTRANSMISSION_PERIOD); //set time of next retry
-            }
-            else {  
-                //toggle retransmission bit of CTR field
-                message[6] = (byte) (message[6] + Globals.RETRANSMISSION_CTR);
-                //update CRC
-                message[message.length-1] = Globals.CKS(Arrays.copyOf(message, message.length-1));
-
-                //put message up for retransmission
-                manager.AddSequence(appId, message[5]);
-                messageList.put(msgId, message);
-                retransmissionQueue.put(msgId, Globals.MAX_RETRANSMISSIONS);
-                retransmissionTime.put(msgId, System.currentTimeMillis()+Globals.RESTRANSMISSION_PERIOD);
-            }
         }
+        
+        if(retransmission) Retried(appId, message);
+    };
+    
+    //Put a message sent for the first time up for retransmission
+    private void Track(int appId, byte[] message) {
+        //toggle retransmission bit of CTR field
+        message[6] = (byte) (message[6] + Globals.RETRANSMISSION_CTR);
+        //update CRC
+        message[message.length-1] = Globals.CKS(message, 0, message.length-1);
+        
+        manager.AddSequence(appId, message[5]);
+        InFlight record = new InFlight(InFlight.Key(appId, message[5], !IsCommand(message)), appId, message);
+        record.retries = Globals.MAX_RETRANSMISSIONS;
+        record.sent = System.nanoTime();
+        retryBudget.Deposit(retryRatio);
+        
+        inFlight.Track(record, TimeUnit.MILLISECONDS.toNanos(GetPeerState(appId).GetRetransmissionTimeout()));
+    };
+    
+    //Update number of retries of a retransmitted message, dropping it once they are exhausted
+    private void Retried(int appId, byte[] message) {
+        long key = InFlight.Key(appId, message[5], !IsCommand(message));
+        InFlight record = inFlight.Get(key);
+        if(record == null) return; //response received meanwhile
+        
+        //set time of next retry, unless a response arrived meanwhile or this was the last one
+        if(inFlight.Retry(record, Backoff(appId, Globals.MAX_RETRANSMISSIONS - record.retries + 1)) != 0) return;
+        
+        //maximum retries made, drop message
+        droppedMessages++;
+        manager.RemoveSequence(appId, message[5]);
+        if(IsCommand(message)) {
+            GetPeerState(appId).Congested();
+            Completed(appId, message[5], false);
+        }
+        //inform supervisor if this isn't a response message and we haven't received a response so far
+        if(!Globals.IsBitSet(message[6], Globals.ACK_POS) && !Globals.IsBitSet(message[6], Globals.ERROR_POS) && !IsHeartbeat(message) && manager.HasSequence(appId, message[5])) manager.DComm_callback_process_ERROR(Globals.ERROR_TRANSMISSION_FAILED, message);
+    };
+    
+    //Delay, in nanoseconds, before the next retry of a message already retried the given times
+    private long Backoff(int appId, int attempt) {
+        long timeout = TimeUnit.MILLISECONDS.toNanos(GetPeerState(appId).GetRetransmissionTimeout());
+        long delay = Math.min(TimeUnit.MILLISECONDS.toNanos(maxBackoff), timeout << Math.min(attempt, 30));
+        return Jitter(Math.max(timeout, delay));
+    };
+    
+    //Spread delays over their upper half so messages sent together aren't retried together
+    private static long Jitter(long delay) {
+        return delay/2 + ThreadLocalRandom.current().nextLong(delay/2 + 1);
+    };
+    
+    //A response arrived, stop retransmitting the message it answers and time its round trip
+    private InFlight Answered(int appId, long key) {
+        InFlight record = inFlight.Answer(key);
+        if(record == null) return null;
+        
+        //only the first transmission is timed, a response can't be matched to a retransmission
+        if(!record.retransmitted) GetPeerState(appId).SampleRtt(System.nanoTime() - record.sent);
+        return record;
     };
     
     //Create and transmit a new message
     public void CreateMessage(int appId, byte seq, byte CTR, byte[] data) {
-        byte[] message = new byte[8+data.length];
+        byte[] message = CreateHeader(appId, seq, CTR, data.length);
+        
+        //add data
+        System.arraycopy(data, 0, message, 7, data.length);
+        
+        Transmit(appId, seq, message);
+    };
+    
+    //Create and transmit a new message whose data is copied straight from a received packet
+    public void CreateMessage(int appId, byte seq, byte CTR, DomoBusPacket source, int from, int to) {
+        byte[] message = CreateHeader(appId, seq, CTR, Math.max(0, to-from));
+        
+        //add data
+        source.CopyRange(from, to, message, 7);
+        
+        Transmit(appId, seq, message);
+    };
+    
+    private byte[] CreateHeader(int appId, byte seq, byte CTR, int dataLength) {
+        byte[] message = new byte[8+dataLength];
         
         //set message length
-        message[0] = (byte) (8+data.length);
+        message[0] = (byte) (8+dataLength);
         
         //set destinatary appId
         Globals.IntToBytes(appId, 1, message);
@@ -285,15 +385,52 @@ public class Dispatcher extends Thread{
         //add CTR
         message[6] = CTR;
         
-        //add data
-        System.arraycopy(data, 0, message, 7, data.length);
-        
+        return message;
+    };
+    
+    private void Transmit(int appId, byte seq, byte[] message) {
         //add CRC
-        message[message.length-1] = Globals.CKS(Arrays.copyOf(message, message.length-1));
+        message[message.length-1] = Globals.CKS(message, 0, message.length-1);
+        
+        //commands are subject to their destination's health and congestion window
+        if(IsCommand(message)) {
+            if(!GetPeerState(appId).AllowRequest()) {
+                manager.Log(Globals.LogType.COMMAND, "Supervisor "+appId+" is down, failing message "+seq+" fast.");
+                if(!IsHeartbeat(message)) manager.DComm_callback_process_ERROR(Globals.ERROR_TRANSMISSION_FAILED, message);
+                return;
+            }
+            
+            switch(GetPeerState(appId).Submit(message)) {
+                case PeerState.QUEUED:
+                    manager.Log(Globals.LogType.COMMAND, "Window to Supervisor "+appId+" is full, message queued locally.");
+                    return;
+                    
+                case PeerState.REJECTED:
+                    manager.DComm_callback_process_ERROR(Globals.ERROR_QUEUES_FULL, message);
+                    return;
+            }
+        }
         
         //send message
-        String msgId = ""+appId+seq;
-        SendMessage(appId, msgId, message, false);
+        SendMessage(appId, message, false);
+    };
+    
+    private static boolean IsCommand(byte[] message) {
+        return message != null && !Globals.IsBitSet(message[6], Globals.ACK_POS);
+    };
+    
+    //Heartbeats concern this library alone, their failures aren't reported to the API
+    private static boolean IsHeartbeat(byte[] message) {
+        return message.length > 9 && (((message[6] << 5) & 0xff) >> 5) == Globals.DCOMM_OPERATION && message[8] == Globals.DCOMM_HEARTBEAT;
+    };
+    
+    //A command to the Supervisor left its window, send pending commands it now allows
+    private void Completed(int appId, byte seq, boolean acknowledged) {
+        PeerState state = GetPeerState(appId);
+        state.Release(seq, acknowledged);
+        
+        byte[] next;
+        while((next = state.Next()) != null) SendMessage(appId, next, false);
     };
     
     //Create and transmit a new message
@@ -319,7 +456,7 @@ public class Dispatcher extends Thread{
         System.arraycopy(data, 0, message, 7, data.length);
         
         //add CRC
-        message[message.length-1] = Globals.CKS(Arrays.copyOf(message, message.length-1));
+        message[message.length-1] = Globals.CKS(message, 0, message.length-1);
         
         return message;
     };
@@ -0,0 +1,176 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2016 Rafael Afonso Rodrigues
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+**/
+
+package domobus.communications;
+
+import java.nio.ByteBuffer;
+
+/**
+ *
+ * @author Rafael Afonso Rodrigues
+ */
+public class DomoBusPacket {
+    
+    private byte[] data;
+    private ByteBuffer buffer;
+    private int offset;
+    private int length;
+    
+    //Views a packet in place, the view is only valid while the underlying bytes are left untouched
+    public DomoBusPacket Wrap(byte[] data, int offset, int length) {
+        this.data = data;
+        this.buffer = null;
+        this.offset = offset;
+        this.length = length;
+        return this;
+    };
+    
+    //Views the packet between the buffer's position and limit
+    public DomoBusPacket Wrap(ByteBuffer buffer) {
+        if(buffer.hasArray()) return Wrap(buffer.array(), buffer.arrayOffset()+buffer.position(), buffer.remaining());
+        this.data = null;
+        this.buffer = buffer;
+        this.offset = buffer.position();
+        this.length = buffer.remaining();
+        return this;
+    };
+    
+    public byte Get(int index) {
+        return data != null ? data[offset+index] : buffer.get(offset+index);
+    };
+    
+    private int GetInt(int index) {
+        //same encoding as Globals.BytesToInt
+        return (Get(index) << 8) | Get(index+1) & 0xFF;
+    };
+    
+    //////////Header fields//////////
+    public int Length() {
+        return length;
+    };
+    
+    public int Destination() {
+        return GetInt(1);
+    };
+    
+    public int Origin() {
+        return GetInt(3);
+    };
+    
+    public byte Sequence() {
+        return Get(5);
+    };
+    
+    public byte Control() {
+        return Get(6);
+    };
+    
+    public int Operation() {
+        return (((Get(6) << 5) & 0xff) >> 5);
+    };
+    
+    public boolean IsPriority() {
+        return Globals.IsBitSet(Get(6), Globals.PRIORITY_POS);
+    };
+    
+    public boolean IsRetransmission() {
+        return Globals.IsBitSet(Get(6), Globals.RETRANSMISSION_POS);
+    };
+    
+    public boolean IsError() {
+        return Globals.IsBitSet(Get(6), Globals.ERROR_POS);
+    };
+    
+    public boolean IsAck() {
+        return Globals.IsBitSet(Get(6), Globals.ACK_POS);
+    };
+    //////////End of header fields//////////
+    
+    
+    //////////GET and SET fields//////////
+    public byte[] DevAddrOrig() {
+        return CopyRange(7, 11);
+    };
+    
+    public byte PropDescOrig() {
+        return Get(11);
+    };
+    
+    public byte[] DevAddrDest() {
+        return CopyRange(12, 16);
+    };
+    
+    public byte PropDescDest() {
+        return Get(16);
+    };
+    
+    public byte[] Value() {
+        return CopyRange(17, length-2);
+    };
+    //////////End of GET and SET fields//////////
+    
+    
+    //////////NOTIFY fields//////////
+    public byte[] NotifyDevAddr() {
+        return CopyRange(7, 11);
+    };
+    
+    public byte NotifyPropDesc() {
+        return Get(11);
+    };
+    
+    public byte[] NotifyValue() {
+        return CopyRange(12, length-1);
+    };
+    //////////End of NOTIFY fields//////////
+    
+    
+    //////////EXEC and DCOMM fields//////////
+    public byte Function() {
+        return Get(8);
+    };
+    
+    public byte[] Arguments() {
+        return CopyRange(9, length-1);
+    };
+    //////////End of EXEC and DCOMM fields//////////
+    
+    
+    //Copies the bytes between from, inclusive, and to, exclusive
+    public byte[] CopyRange(int from, int to) {
+        byte[] copy = new byte[Math.max(0, to-from)];
+        CopyRange(from, to, copy, 0);
+        return copy;
+    };
+    
+    public void CopyRange(int from, int to, byte[] destination, int destinationOffset) {
+        if(to <= from) return;
+        if(data != null) System.arraycopy(data, offset+from, destination, destinationOffset, to-from);
+        else for(int i = from; i < to; i++) destination[destinationOffset+i-from] = buffer.get(offset+i);
+    };
+    
+    public byte[] ToArray() {
+        return CopyRange(0, length);
+    };
+}
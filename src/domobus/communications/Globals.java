@@ -25,6 +25,8 @@
 package domobus.communications;
 
 import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
 
 public class Globals {
     
@@ -35,6 +37,33 @@ public class Globals {
     public static final String PREFIX_PEERS = "ADDR_MAP";
     public static final String PREFIX_SUBSCRIBERS = "SUBSCRIBE";
     public static final String PREFIX_DNS = "DNS";
+    public static final String PREFIX_WORKERS = "WORKERS";
+    public static final String PREFIX_VIRTUAL_CALLBACKS = "VIRTUAL_CALLBACKS";
+    public static final String PREFIX_SCHEDULER = "SCHEDULER";
+    public static final String PREFIX_CONGESTION_WINDOW = "CONGESTION_WINDOW";
+    public static final String PREFIX_WATERMARKS = "WATERMARKS";
+    public static final String PREFIX_CONFLATE_NOTIFY = "CONFLATE_NOTIFY";
+    public static final String PREFIX_NOTIFY_BATCH = "NOTIFY_BATCH";
+    public static final String PREFIX_DEADLINE = "DEADLINE";
+    public static final String PREFIX_EXPIRY = "EXPIRY";
+    public static final String PREFIX_RTO = "RTO";
+    public static final String PREFIX_AGGREGATION = "AGGREGATION";
+    public static final String PREFIX_SENDERS = "SENDERS";
+    public static final String PREFIX_RESOLVER = "RESOLVER";
+    public static final String PREFIX_REACTOR = "REACTOR";
+    public static final String PREFIX_LISTENERS = "LISTENERS";
+    public static final String PREFIX_ADMISSION = "ADMISSION";
+    public static final String PREFIX_BACKOFF = "BACKOFF";
+    public static final String PREFIX_RETRY_BUDGET = "RETRY_BUDGET";
+    public static final String PREFIX_HEALTH = "HEALTH";
+    public static final String PREFIX_HEARTBEAT = "HEARTBEAT";
+    
+    //Scheduling policies between priority and normal queues
+    public static final String SCHEDULER_STRICT = "STRICT";
+    public static final String SCHEDULER_WRR = "WRR";
+    public static final String SCHEDULER_DRR = "DRR";
+    public static final String EXPIRY_DROP = "DROP";
+    public static final String EXPIRY_REPLY = "REPLY";
     
     //Operation codes
     public static final int GET_OPERATION = 0x00;
@@ -80,11 +109,49 @@ public class Globals {
     //Defaults
     public static final int QUEUE_SIZE = 100;
     public static final int PRIORITY_QUEUE_SIZE = 25;
+    public static final int WORKERS = 1; //number of Worker threads, commands are sharded among them by appId of origin
+    public static final int PRIORITY_WEIGHT = 4; //priority messages served for each normal message under weighted scheduling
+    public static final int NORMAL_WEIGHT = 1;
+    public static final int HIGH_WATERMARK = 80; //percentage of the normal queue above which new commands are refused
+    public static final int LOW_WATERMARK = 50; //percentage of the normal queue below which new commands are accepted again
+    public static final int INITIAL_WINDOW = 4; //commands in flight allowed per destination before any acknowledgement
+    public static final int MAX_WINDOW = 64;
+    public static final int PENDING_QUEUE_SIZE = 1000; //commands kept locally per destination while its window is full
+    public static final int NOTIFY_BATCH_SIZE = 64; //NOTIFY commands delivered at most per batch callback
+    public static final int NOTIFY_BATCH_DELAY = 0; //milliseconds a batch may wait for more NOTIFY commands once the queues are empty
+    public static final int CALLBACK_CONCURRENCY = 256; //concurrent callbacks allowed per operation type when running them on virtual threads
     public static final int VACATION_DURATION = 100; //pausing duration, in milliseconds, when message queues are empty
     public static final int RESTRANSMISSION_PERIOD = 1000;
+    public static final int MIN_RETRANSMISSION_TIMEOUT = 20; //bounds, in milliseconds, of the retransmission timeout adapted to each destination's round trip time
+    public static final int MAX_RETRANSMISSION_TIMEOUT = 3000;
+    public static final int MAX_BACKOFF = 4000; //milliseconds at most between retransmissions of a message, backing off exponentially
+    public static final int RETRY_BUDGET_RATIO = 20; //percentage of first transmissions that may be retransmitted node-wide
+    public static final int RETRY_BUDGET_RATE = 10; //retransmissions per second allowed regardless of traffic
+    public static final int RETRY_BUDGET_BURST = 100;
+    public static final int SUSPECT_FAILURES = 1; //consecutive commands timing out before a Supervisor is suspected
+    public static final int DOWN_FAILURES = 3; //consecutive commands timing out before a Supervisor is down and commands to it fail fast
+    public static final int BREAKER_OPEN_DURATION = 1000; //milliseconds a Supervisor stays down before a command probes it
+    public static final int HEARTBEAT_PERIOD = 0; //milliseconds of silence before a Supervisor is sent a heartbeat, disabled if not positive
+    public static final int TIMER_TICK = 10; //resolution, in milliseconds, of retransmission timers
+    public static final int TIMER_WHEEL_SIZE = 512; //ticks in a turn of the retransmission timer wheel
+    public static final int INFLIGHT_STRIPES = 16; //independently locked partitions of the messages awaiting a response
     public static final int MAX_RETRANSMISSIONS = 5;
+    public static final int COMMAND_DEADLINE = RESTRANSMISSION_PERIOD*(MAX_RETRANSMISSIONS+1); //milliseconds a queued command stays useful, its sender has given up afterwards
     public static final int MAX_PACKET_LENGTH = 255;
+    public static final int SEQUENCE_NUMBERS = 256; //sequence numbers are a single byte, at most half of them may be awaiting a response per destination
     public static final int MIN_PACKET_LENGTH = 8;
+    public static final int MAX_DATAGRAM_LENGTH = 1400; //several messages may share a datagram, kept below common MTUs
+    public static final int SENDERS = 1; //threads sending the queued messages
+    public static final int SEND_BATCH = 64; //datagrams sent to a Supervisor before serving others
+    public static final int RECEIVE_BATCH = 64; //datagrams a Reactor reads from a socket before serving the others
+    public static final int ADMISSION_BURST = 50; //datagrams a source may send beyond its admitted rate
+    public static final int MAX_ADMISSION_SOURCES = 4096; //sources given a token bucket of their own, others share one
+    public static final int BUFFER_POOL_SIZE = 256; //released receive buffers kept for reuse
+    public static final boolean DEBUG_BUFFERS = false; //remember where each receive buffer was acquired to report those never released
+    public static final int RESOLVER_THREADS = 2; //threads looking up unknown Supervisors with the DNS
+    public static final int MAX_PENDING_LOOKUPS = 64; //lookups waiting for a Resolver thread before further ones are refused
+    public static final int MAX_PARKED_MESSAGES = 256; //messages kept per unknown Supervisor until it is resolved
+    public static final int AGGREGATION_WINDOW = 1; //milliseconds messages to a Supervisor may wait for others to share their datagram
     public static final int CONNECTION_TIMEOUT = 5000;
     public static final int BACKUP_PERIOD = 1800000; //configuration file persisted every 30 minutes
     
@@ -104,6 +171,8 @@ public class Globals {
     public static final int DCOMM_UNSUBSCRIBE = 0x03;
     public static final int DCOMM_UNSUBSCRIBE_ALL = 0x04;
     public static final int DCOMM_LIST_PUBLISHERS = 0x05;
+    public static final int DCOMM_AGGREGATION = 0x06;
+    public static final int DCOMM_HEARTBEAT = 0x07;
     
     
     //Auxilliary Functions
@@ -123,8 +192,11 @@ public class Globals {
     
     private static final byte DCOMM_CHECKSUM_SEED = 0x5A;
     static public byte CKS(byte[] data) {
+        return CKS(data, 0, data.length);
+    };
+    static public byte CKS(byte[] data, int offset, int length) {
         byte cks = DCOMM_CHECKSUM_SEED;
-        for(byte b: data) cks += b;
+        for(int i = offset; i < offset+length; i++) cks += data[i];
         return cks;
     };
     
@@ -149,4 +221,26 @@ public class Globals {
         }
     };
     
+    //Splits a datagram into the messages it carries, each starting with its length
+    static public List<byte[]> SplitDatagram(byte[] datagram, int length) {
+        List<byte[]> messages = new ArrayList<>(1);
+        int offset = 0;
+        int messageLength;
+        while((messageLength = MessageLength(datagram, offset, length)) > 0) {
+            byte[] message = new byte[messageLength];
+            System.arraycopy(datagram, offset, message, 0, messageLength);
+            messages.add(message);
+            offset += messageLength;
+        }
+        return messages;
+    };
+    
+    //Length of the message starting at offset within a datagram, 0 once none is left or the rest is badly formatted
+    static public int MessageLength(byte[] datagram, int offset, int length) {
+        if(length - offset < MIN_PACKET_LENGTH) return 0;
+        int messageLength = datagram[offset] & 0xFF;
+        if(messageLength < MIN_PACKET_LENGTH || messageLength > length - offset) return 0;
+        return messageLength;
+    };
+    
 }
\ No newline at end of file
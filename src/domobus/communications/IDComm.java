@@ -25,13 +25,6 @@
 package domobus.communications;
 
 
-class UnsupportedCommandException extends Exception{
-    public UnsupportedCommandException() {}  
-    public UnsupportedCommandException(String msg) { super(msg); }  
-    public UnsupportedCommandException(Throwable cause) { super(cause); }  
-    public UnsupportedCommandException(String msg, Throwable cause) { super(msg, cause); } 
-}
-
 public interface IDComm {
     
     //Outgoing Asynchronous Commands
@@ -0,0 +1,66 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2016 Rafael Afonso Rodrigues
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+**/
+
+package domobus.communications;
+
+/**
+ *
+ * @author Rafael Afonso Rodrigues
+ */
+public class InFlight extends TimerWheel.Timeout {
+    
+    long key;
+    int appId;
+    byte[] message;
+    int retries;
+    long sent;
+    boolean retransmitted;
+    
+    public InFlight(long key, int appId, byte[] message) {
+        this.key = key;
+        this.appId = appId;
+        this.message = message;
+    };
+    
+    //Messages are identified by destination, sequence number and whether they respond to a command of the destination
+    public static long Key(int appId, byte seq, boolean response) {
+        return (appId & 0xFFFFFFFFL) << 9 | (response ? 0x100 : 0) | (seq & 0xFF);
+    };
+    
+    public long GetKey() {
+        return key;
+    };
+    
+    public int GetAppId() {
+        return appId;
+    };
+    
+    public byte[] GetMessage() {
+        return message;
+    };
+    
+    public int GetRetries() {
+        return retries;
+    };
+}
@@ -0,0 +1,156 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2016 Rafael Afonso Rodrigues
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+**/
+
+package domobus.communications;
+
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ *
+ * @author Rafael Afonso Rodrigues
+ */
+public class InFlightRegistry {
+    
+    private InFlightTable[] tables;
+    private ReentrantLock[] LOCKS;
+    private int mask;
+    private TimerWheel wheel;
+    
+    //Messages are split by destination among a power of two stripes, each with its own lock and table
+    public InFlightRegistry(int stripes, TimerWheel wheel) {
+        int count = Integer.highestOneBit(Math.max(1, 2*stripes-1));
+        this.tables = new InFlightTable[count];
+        this.LOCKS = new ReentrantLock[count];
+        for(int i = 0; i < count; i++) {
+            tables[i] = new InFlightTable();
+            LOCKS[i] = new ReentrantLock();
+        }
+        this.mask = count-1;
+        this.wheel = wheel;
+    };
+    
+    //Registers a message sent for the first time and arms its retransmission, replacing any older one with the same key
+    public void Track(InFlight record, long delay) {
+        int stripe = Stripe(record.key);
+        LOCKS[stripe].lock();
+        try {
+            InFlight previous = tables[stripe].Put(record);
+            if(previous != null) wheel.Cancel(previous);
+            wheel.Schedule(record, delay);
+        } finally {
+            LOCKS[stripe].unlock();
+        }
+    };
+    
+    //Accounts a retransmission of a message still registered, returning its remaining retries or -1 if it was answered meanwhile
+    public int Retry(InFlight record, long delay) {
+        int stripe = Stripe(record.key);
+        LOCKS[stripe].lock();
+        try {
+            if(tables[stripe].Get(record.key) != record) return -1;
+            
+            record.retransmitted = true;
+            if(--record.retries > 0) wheel.Schedule(record, delay);
+            else tables[stripe].Remove(record.key);
+            return record.retries;
+        } finally {
+            LOCKS[stripe].unlock();
+        }
+    };
+    
+    //Arms the retransmission of a message still registered again without accounting a retry
+    public boolean Reschedule(InFlight record, long delay) {
+        int stripe = Stripe(record.key);
+        LOCKS[stripe].lock();
+        try {
+            if(tables[stripe].Get(record.key) != record) return false;
+            wheel.Schedule(record, delay);
+            return true;
+        } finally {
+            LOCKS[stripe].unlock();
+        }
+    };
+    
+    //Unregisters an answered message and disarms its retransmission
+    public InFlight Answer(long key) {
+        int stripe = Stripe(key);
+        LOCKS[stripe].lock();
+        try {
+            InFlight record = tables[stripe].Remove(key);
+            if(record != null) wheel.Cancel(record);
+            return record;
+        } finally {
+            LOCKS[stripe].unlock();
+        }
+    };
+    
+    public boolean Contains(InFlight record) {
+        int stripe = Stripe(record.key);
+        LOCKS[stripe].lock();
+        try {
+            return tables[stripe].Get(record.key) == record;
+        } finally {
+            LOCKS[stripe].unlock();
+        }
+    };
+    
+    public InFlight Get(long key) {
+        int stripe = Stripe(key);
+        LOCKS[stripe].lock();
+        try {
+            return tables[stripe].Get(key);
+        } finally {
+            LOCKS[stripe].unlock();
+        }
+    };
+    
+    //Sleeps until retransmissions are due, see TimerWheel.Expire
+    public boolean Expire(List<TimerWheel.Timeout> expired) {
+        return wheel.Expire(expired);
+    };
+    
+    public void Close() {
+        wheel.Close();
+    };
+    
+    public int Size() {
+        int size = 0;
+        for(int i = 0; i < tables.length; i++) {
+            LOCKS[i].lock();
+            try {
+                size += tables[i].Size();
+            } finally {
+                LOCKS[i].unlock();
+            }
+        }
+        return size;
+    };
+    
+    private int Stripe(long key) {
+        //keys start with the destination appId, so a destination always maps to the same stripe
+        int appId = (int) (key >>> 9);
+        return (appId * 0x9E3779B9 >>> 16) & mask;
+    };
+}
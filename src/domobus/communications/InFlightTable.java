@@ -0,0 +1,114 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2016 Rafael Afonso Rodrigues
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+**/
+
+package domobus.communications;
+
+/**
+ *
+ * @author Rafael Afonso Rodrigues
+ */
+public class InFlightTable {
+    
+    private static final int MIN_CAPACITY = 16;
+    
+    private InFlight[] slots;
+    private int mask;
+    private int size;
+    
+    public InFlightTable() {
+        this(MIN_CAPACITY);
+    };
+    
+    //Open addressing with linear probing, kept at most half full
+    public InFlightTable(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(MIN_CAPACITY, 2*expected-1)) << 1;
+        this.slots = new InFlight[capacity];
+        this.mask = capacity-1;
+    };
+    
+    public InFlight Get(long key) {
+        for(int i = Slot(key); ; i = (i+1) & mask) {
+            InFlight record = slots[i];
+            if(record == null || record.key == key) return record;
+        }
+    };
+    
+    //Stores a record, returning the one it replaced for the same key if any
+    public InFlight Put(InFlight record) {
+        if(2*(size+1) > slots.length) Resize(2*slots.length);
+        
+        int i = Slot(record.key);
+        while(slots[i] != null) {
+            if(slots[i].key == record.key) {
+                InFlight previous = slots[i];
+                slots[i] = record;
+                return previous;
+            }
+            i = (i+1) & mask;
+        }
+        slots[i] = record;
+        size++;
+        return null;
+    };
+    
+    public InFlight Remove(long key) {
+        int i = Slot(key);
+        while(slots[i] != null && slots[i].key != key) i = (i+1) & mask;
+        InFlight removed = slots[i];
+        if(removed == null) return null;
+        
+        //shift back following records of the same cluster so no probe sequence is broken
+        int hole = i;
+        for(int j = (hole+1) & mask; slots[j] != null; j = (j+1) & mask) {
+            int home = Slot(slots[j].key);
+            if(((j - home) & mask) >= ((j - hole) & mask)) {
+                slots[hole] = slots[j];
+                hole = j;
+            }
+        }
+        slots[hole] = null;
+        size--;
+        return removed;
+    };
+    
+    public int Size() {
+        return size;
+    };
+    
+    private int Slot(long key) {
+        //mix the bits so consecutive sequence numbers of a destination spread over the table
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 32) & mask;
+    };
+    
+    private void Resize(int capacity) {
+        InFlight[] old = slots;
+        slots = new InFlight[capacity];
+        mask = capacity-1;
+        size = 0;
+        for(InFlight record: old) {
+            if(record != null) Put(record);
+        }
+    };
+}
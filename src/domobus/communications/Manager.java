@@ -34,7 +34,9 @@ import java.net.BindException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.SocketTimeoutException;
+import java.nio.channels.DatagramChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
@@ -42,6 +44,11 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.DelayQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -59,18 +66,30 @@ public class Manager extends Thread implements IDComm{
     private ArrayList<String> configAppend;
     private ArrayList<String> configRemove;
     private Timer configurationTask;
+    private Timer heartbeatTask;
     private String dnsHost;
     private int dnsPort;
     private Logger logger;
-    private Worker worker;
+    private Worker[] workers;
     private Dispatcher dispatcher;
+    private String[] scheduler;
     private Map<Integer, ArrayList<Byte>> sequences;
     private Map<Integer, Byte> currentSequence;
     private Map<String, byte[]> messageList;
     private Map<Integer, Map<Integer, ArrayList<Integer>>> subscriptions;
-    private Map<Integer, Peer> peerList;
+    private ConcurrentMap<Integer, Peer> peerList;
     private ReentrantLock LOCK;
+    //guards subscriptions and pending configuration changes, updated by every Worker
+    private ReentrantLock SUBSCRIPTIONS;
     private DatagramSocket serverSocket;
+    private int[] aggregation;
+    private Sender[] senders;
+    private DelayQueue<Peer> outbound;
+    private Resolver resolver;
+    private Reactor[] reactors;
+    private BufferPool buffers;
+    private AdmissionControl admission;
+    private Map<Long, BlockingQueue<byte[]>> syncResponses;
     
     public Manager(IDComm API, final String configurationFile) throws FileNotFoundException, IOException, InstantiationException {
         this.API = API;
@@ -85,9 +104,30 @@ public class Manager extends Thread implements IDComm{
         this.configurationChanged = false;
         this.configAppend = new ArrayList<>();
         this.configRemove = new ArrayList<>();
-        this.peerList = new HashMap<>();
+        this.peerList = new ConcurrentHashMap<>();
+        this.buffers = new BufferPool(Globals.BUFFER_POOL_SIZE, Globals.MAX_DATAGRAM_LENGTH, Globals.DEBUG_BUFFERS);
         this.LOCK = new ReentrantLock(true);
+        this.SUBSCRIPTIONS = new ReentrantLock();
         this.running = true;
+        this.scheduler = new String[]{Globals.PREFIX_SCHEDULER, Globals.SCHEDULER_STRICT};
+        int workerCount = Globals.WORKERS;
+        int senderCount = Globals.SENDERS;
+        int[] resolverLimits = {Globals.RESOLVER_THREADS, Globals.MAX_PARKED_MESSAGES};
+        boolean reactorMode = false;
+        int listeners = 1;
+        int[] callbackLimits = null;
+        int[] watermarks = {Globals.HIGH_WATERMARK, Globals.LOW_WATERMARK};
+        int[] window = {Globals.INITIAL_WINDOW, Globals.MAX_WINDOW};
+        int[] timeout = {Globals.MIN_RETRANSMISSION_TIMEOUT, Globals.MAX_RETRANSMISSION_TIMEOUT};
+        int maxBackoff = Globals.MAX_BACKOFF;
+        int[] retryBudget = {Globals.RETRY_BUDGET_RATIO, Globals.RETRY_BUDGET_RATE};
+        int[] health = {Globals.SUSPECT_FAILURES, Globals.DOWN_FAILURES, Globals.BREAKER_OPEN_DURATION};
+        int heartbeat = Globals.HEARTBEAT_PERIOD;
+        boolean conflation = false;
+        int[] notifyBatch = null;
+        int[] deadlines = new int[8];
+        Arrays.fill(deadlines, Globals.COMMAND_DEADLINE);
+        boolean replyExpired = false;
         
         //open configuration file
         this.configurationFile = configurationFile;
@@ -143,6 +183,156 @@ public class Manager extends Thread implements IDComm{
                     dnsPort = Integer.parseInt(tokens[2]);
                     break;
                     
+                case Globals.PREFIX_WORKERS:
+                    //retrieve size of the Worker pool, one per available core if not positive
+                    workerCount = Integer.parseInt(tokens[1]);
+                    if(workerCount <= 0) workerCount = Runtime.getRuntime().availableProcessors();
+                    break;
+                    
+                case Globals.PREFIX_VIRTUAL_CALLBACKS:
+                    //retrieve concurrency limits of GET, SET, EXEC and RESERVED callbacks, either one for all or one each
+                    if(tokens.length != 1 && tokens.length != 2 && tokens.length != 5) {
+                        Log(Globals.LogType.ERROR, "Manager\tMalformed configuration line, expected "+Globals.PREFIX_VIRTUAL_CALLBACKS+" [limit] or "+Globals.PREFIX_VIRTUAL_CALLBACKS+" [getLimit] [setLimit] [execLimit] [reservedLimit]: "+line);
+                        break;
+                    }
+                    callbackLimits = new int[4];
+                    for(int i = 0; i < callbackLimits.length; i++) {
+                        if(tokens.length == 2) callbackLimits[i] = Integer.parseInt(tokens[1]);
+                        else if(tokens.length == 5) callbackLimits[i] = Integer.parseInt(tokens[i+1]);
+                        else callbackLimits[i] = Globals.CALLBACK_CONCURRENCY;
+                    }
+                    break;
+                    
+                case Globals.PREFIX_SCHEDULER:
+                    //retrieve scheduling policy between priority and normal queues, kept for each Worker to build its own
+                    if(tokens.length < 2) {
+                        Log(Globals.LogType.ERROR, "Manager\tMalformed configuration line, expected "+Globals.PREFIX_SCHEDULER+" [policy]: "+line);
+                        break;
+                    }
+                    switch(tokens[1]) {
+                        case Globals.SCHEDULER_STRICT:
+                            if(tokens.length == 2) scheduler = tokens;
+                            else Log(Globals.LogType.ERROR, "Manager\tMalformed configuration line, expected "+Globals.PREFIX_SCHEDULER+" "+Globals.SCHEDULER_STRICT+": "+line);
+                            break;
+                            
+                        case Globals.SCHEDULER_WRR:
+                        case Globals.SCHEDULER_DRR:
+                            if(tokens.length == 2 || tokens.length == 4) scheduler = tokens;
+                            else Log(Globals.LogType.ERROR, "Manager\tMalformed configuration line, expected "+Globals.PREFIX_SCHEDULER+" "+tokens[1]+" [priorityWeight] [normalWeight]: "+line);
+                            break;
+                            
+                        default:
+                            Log(Globals.LogType.ERROR, "Manager\tUnknown scheduling policy, expected "+Globals.SCHEDULER_STRICT+", "+Globals.SCHEDULER_WRR+" or "+Globals.SCHEDULER_DRR+": "+line);
+                            break;
+                    }
+                    break;
+                    
+                case Globals.PREFIX_WATERMARKS:
+                    //retrieve high and low watermarks of the Workers' queues
+                    watermarks[0] = Integer.parseInt(tokens[1]);
+                    watermarks[1] = Integer.parseInt(tokens[2]);
+                    break;
+                    
+                case Globals.PREFIX_CONFLATE_NOTIFY:
+                    //keep only the latest queued NOTIFY per device and property
+                    conflation = true;
+                    break;
+                    
+                case Globals.PREFIX_NOTIFY_BATCH:
+                    //retrieve maximum size and delay of NOTIFY batches
+                    notifyBatch = new int[]{Globals.NOTIFY_BATCH_SIZE, Globals.NOTIFY_BATCH_DELAY};
+                    if(tokens.length > 1) notifyBatch[0] = Integer.parseInt(tokens[1]);
+                    if(tokens.length > 2) notifyBatch[1] = Integer.parseInt(tokens[2]);
+                    break;
+                    
+                case Globals.PREFIX_DEADLINE:
+                    //retrieve milliseconds commands may wait in queue, either one for all or one each for GET, SET, NOTIFY, EXEC and DCOMM
+                    if(tokens.length == 2) Arrays.fill(deadlines, Integer.parseInt(tokens[1]));
+                    else if(tokens.length == 6) {
+                        deadlines[Globals.GET_OPERATION] = Integer.parseInt(tokens[1]);
+                        deadlines[Globals.SET_OPERATION] = Integer.parseInt(tokens[2]);
+                        deadlines[Globals.NOTIFY_OPERATION] = Integer.parseInt(tokens[3]);
+                        deadlines[Globals.EXEC_OPERATION] = Integer.parseInt(tokens[4]);
+                        deadlines[Globals.DCOMM_OPERATION] = Integer.parseInt(tokens[5]);
+                    }
+                    else Log(Globals.LogType.ERROR, "Manager\tMalformed configuration line, expected "+Globals.PREFIX_DEADLINE+" [ms] or "+Globals.PREFIX_DEADLINE+" [getMs] [setMs] [notifyMs] [execMs] [dcommMs]: "+line);
+                    break;
+                    
+                case Globals.PREFIX_EXPIRY:
+                    //either drop expired commands or answer them with a timeout error
+                    replyExpired = tokens[1].equalsIgnoreCase(Globals.EXPIRY_REPLY);
+                    break;
+                    
+                case Globals.PREFIX_CONGESTION_WINDOW:
+                    //retrieve initial and maximum windows of commands in flight per destination
+                    window[0] = Integer.parseInt(tokens[1]);
+                    window[1] = Integer.parseInt(tokens[2]);
+                    break;
+                    
+                case Globals.PREFIX_SENDERS:
+                    //retrieve number of threads sending queued messages
+                    senderCount = Math.max(1, Integer.parseInt(tokens[1]));
+                    break;
+                    
+                case Globals.PREFIX_RESOLVER:
+                    //retrieve number of threads looking up unknown Supervisors and messages parked for each
+                    resolverLimits[0] = Math.max(1, Integer.parseInt(tokens[1]));
+                    if(tokens.length > 2) resolverLimits[1] = Integer.parseInt(tokens[2]);
+                    break;
+                    
+                case Globals.PREFIX_REACTOR:
+                    //receive from every Supervisor through a single multiplexing thread
+                    reactorMode = true;
+                    break;
+                    
+                case Globals.PREFIX_LISTENERS:
+                    //retrieve number of sockets sharing the public port, each with a Reactor of its own
+                    listeners = Math.max(1, Integer.parseInt(tokens[1]));
+                    reactorMode = true;
+                    break;
+                    
+                case Globals.PREFIX_ADMISSION:
+                    //retrieve datagrams per second admitted from each Supervisor and each address, and their burst
+                    double burst = tokens.length > 3 ? Integer.parseInt(tokens[3]) : Globals.ADMISSION_BURST;
+                    admission = new AdmissionControl(Integer.parseInt(tokens[1]), Integer.parseInt(tokens[2]), burst, Globals.MAX_ADMISSION_SOURCES);
+                    break;
+                    
+                case Globals.PREFIX_AGGREGATION:
+                    //retrieve window and maximum size of datagrams carrying several messages
+                    aggregation = new int[]{Globals.AGGREGATION_WINDOW, Globals.MAX_DATAGRAM_LENGTH};
+                    if(tokens.length > 1) aggregation[0] = Integer.parseInt(tokens[1]);
+                    if(tokens.length > 2) aggregation[1] = Math.min(Globals.MAX_DATAGRAM_LENGTH, Integer.parseInt(tokens[2]));
+                    break;
+                    
+                case Globals.PREFIX_BACKOFF:
+                    //retrieve maximum delay between retransmissions of a message
+                    maxBackoff = Integer.parseInt(tokens[1]);
+                    break;
+                    
+                case Globals.PREFIX_RETRY_BUDGET:
+                    //retrieve share of first transmissions and steady rate allowed for retransmissions
+                    retryBudget[0] = Integer.parseInt(tokens[1]);
+                    retryBudget[1] = Integer.parseInt(tokens[2]);
+                    break;
+                    
+                case Globals.PREFIX_HEALTH:
+                    //retrieve consecutive failures to suspect and take down a Supervisor, and milliseconds before probing it
+                    health[0] = Integer.parseInt(tokens[1]);
+                    health[1] = Integer.parseInt(tokens[2]);
+                    health[2] = Integer.parseInt(tokens[3]);
+                    break;
+                    
+                case Globals.PREFIX_HEARTBEAT:
+                    //retrieve milliseconds of silence before a Supervisor is sent a heartbeat
+                    heartbeat = Integer.parseInt(tokens[1]);
+                    break;
+                    
+                case Globals.PREFIX_RTO:
+                    //retrieve floor and ceiling of retransmission timeouts
+                    timeout[0] = Integer.parseInt(tokens[1]);
+                    timeout[1] = Integer.parseInt(tokens[2]);
+                    break;
+                    
                 default:
                     //unrecognized configuration prefix, ignore
                     break;
@@ -167,6 +357,7 @@ public class Manager extends Thread implements IDComm{
                     return;
                 }
                 
+                SUBSCRIPTIONS.lock();
                 try {
                     FileWriter fw;
                     if(configRemove.size() > 0) {
@@ -190,35 +381,110 @@ public class Manager extends Thread implements IDComm{
                         fw = new FileWriter(configurationFile);
                         for(String entry: configAppend) {
                             Log(Globals.LogType.SYSTEM, "Adding to configuration file the property: "+entry);
-                            configAppend.remove(entry);
                             fw.append(entry+"\n");
                         }
+                        configAppend.clear();
                         fw.close();
                     }
                     configurationChanged = false;
                     
                 } catch(IOException ex) {
                     Log(Globals.LogType.ERROR, "Exception while updating configuration file.");
+                } finally {
+                    SUBSCRIPTIONS.unlock();
                 }
             }
         }, Globals.BACKUP_PERIOD, Globals.BACKUP_PERIOD);
         
-        this.worker = new Worker(API, this);
+        //optionally run blocking callbacks outside of the Workers
+        CallbackExecutor executor = null;
+        if(callbackLimits != null) {
+            executor = new CallbackExecutor(callbackLimits);
+            if(executor.IsVirtual()) Log(Globals.LogType.SYSTEM, "IDComm callbacks will run on virtual threads.");
+            else Log(Globals.LogType.SYSTEM, "Virtual threads are unavailable, IDComm callbacks will run on platform threads.");
+        }
+        
+        this.workers = new Worker[workerCount];
+        for(int i = 0; i < workerCount; i++) {
+            workers[i] = new Worker(API, this, i, executor, NewSchedulingPolicy());
+            workers[i].SetWatermarks(watermarks[0], watermarks[1]);
+            if(conflation) workers[i].EnableConflation();
+            if(notifyBatch != null) workers[i].EnableBatching(notifyBatch[0], notifyBatch[1]);
+            workers[i].SetDeadlines(deadlines, replyExpired);
+        }
+        //messages are sent by a stage of their own, callers only queue them
+        this.outbound = new DelayQueue<>();
+        this.senders = new Sender[senderCount];
+        for(int i = 0; i < senderCount; i++) senders[i] = new Sender(this, i, outbound);
+        //unknown Supervisors are looked up once each, their messages waiting meanwhile
+        this.resolver = new Resolver(this, resolverLimits[0], Globals.MAX_PENDING_LOOKUPS, resolverLimits[1]);
+        //optionally receive without a thread per Supervisor, synchronous responses then being handed over by the Reactor
+        if(reactorMode) {
+            this.reactors = new Reactor[listeners];
+            for(int i = 0; i < listeners; i++) reactors[i] = new Reactor(this, i);
+            this.syncResponses = new ConcurrentHashMap<>();
+        }
+        
         this.dispatcher = new Dispatcher(this);
+        dispatcher.SetCongestionWindow(window[0], window[1]);
+        dispatcher.SetRetransmissionTimeout(timeout[0], timeout[1]);
+        dispatcher.SetMaxBackoff(maxBackoff);
+        dispatcher.SetRetryBudget(retryBudget[0], retryBudget[1]);
+        dispatcher.SetHealthThresholds(health[0], health[1], health[2]);
+        
+        //optionally check on silent, suspected or down Supervisors
+        if(heartbeat > 0) {
+            final long period = TimeUnit.MILLISECONDS.toNanos(heartbeat);
+            this.heartbeatTask = new Timer("Heartbeat", true);
+            heartbeatTask.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    for(int appId: peerList.keySet()) {
+                        if(dispatcher.GetPeerState(appId).NeedsHeartbeat(period)) DComm_send_msg_DCOMM(appId, (byte) Globals.DCOMM_HEARTBEAT, new byte[0], true);
+                    }
+                }
+            }, heartbeat, heartbeat);
+        }
+    };
+    
+    //Wait a while for a stopped thread to finish, returns whether it did
+    private boolean Await(Thread thread) {
+        try {
+            thread.join(Globals.CONNECTION_TIMEOUT);
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        return !thread.isAlive();
     };
     
     public void Disconnect() {
         //Stop dispatching messages
         dispatcher.Stop();
         System.out.println("Dispatcher stopped.");
+        //Stop sending queued messages
+        for(Sender sender: senders) sender.Stop();
+        if(heartbeatTask != null) heartbeatTask.cancel();
+        System.out.println("Senders stopped.");
+        //Stop looking up Supervisors
+        resolver.Stop();
+        if(reactors != null) for(Reactor reactor: reactors) reactor.Stop();
+        if(admission != null) admission.LogDrops(this);
         //Stop accepting new connections
         running = false;
         //Close open connections
         for(Peer peer: peerList.values()) peer.Disconnect();
         System.out.println("Stopped incomming connections.");
         //Stop processing messages
-        worker.Stop();
-        System.out.println("Worker stopped.");
+        for(Worker worker: workers) worker.Stop();
+        System.out.println("Workers stopped.");
+        //Once every stage has stopped, buffers still out were never released
+        int receiving = 0;
+        if(reactors != null) for(Reactor reactor: reactors) Await(reactor);
+        for(Worker worker: workers) Await(worker);
+        for(Peer peer: peerList.values()) if(!Await(peer)) receiving++;
+        //the public port's receive loop never times out, it keeps its buffer while blocked
+        if(isAlive() && Thread.currentThread() != this) receiving++;
+        buffers.ReportLeaks(this, receiving);
         //Close logs
         logger.Stop();
         System.out.println("Logs closed.");
@@ -228,80 +494,84 @@ public class Manager extends Thread implements IDComm{
         return id;
     };
     
+    private SchedulingPolicy NewSchedulingPolicy() {
+        switch(scheduler[1]) {
+            case Globals.SCHEDULER_WRR:
+                //weighted round-robin over messages
+                if(scheduler.length > 3) return new WeightedRoundRobinPolicy(Integer.parseInt(scheduler[2]), Integer.parseInt(scheduler[3]));
+                return new WeightedRoundRobinPolicy(Globals.PRIORITY_WEIGHT, Globals.NORMAL_WEIGHT);
+                
+            case Globals.SCHEDULER_DRR:
+                //deficit round-robin over bytes
+                if(scheduler.length > 3) return new DeficitRoundRobinPolicy(Integer.parseInt(scheduler[2]), Integer.parseInt(scheduler[3]));
+                return new DeficitRoundRobinPolicy(Globals.PRIORITY_WEIGHT*Globals.MAX_PACKET_LENGTH, Globals.NORMAL_WEIGHT*Globals.MAX_PACKET_LENGTH);
+                
+            case Globals.SCHEDULER_STRICT:
+            default:
+                //priority queue always served first
+                return new StrictPriorityPolicy();
+        }
+    };
+    
     @Override
     public void run() {
         try {
             if(DNSRegistration()) System.out.println("Registered with DNS.");
             
-            //start Worker
-            worker.start();
+            //start Workers
+            for(Worker worker: workers) worker.start();
             
-            //start Dispatcher
+            //start Senders and Dispatcher
+            for(Sender sender: senders) sender.start();
             dispatcher.start();
             
             //start listening to known peers
-            for(Peer peer: peerList.values()) peer.start();
+            for(Peer peer: peerList.values()) StartPeer(peer);
+            for(int appId: peerList.keySet()) NegotiateAggregation(appId);
+            
+            if(reactors != null) {
+                //a single thread receives from every Supervisor on the public port, or one per socket sharing it
+                int listening = 0;
+                for(Reactor reactor: reactors) {
+                    DatagramChannel channel = DatagramChannel.open();
+                    boolean shared = reactors.length > 1 && Reactor.ReusePort(channel);
+                    channel.socket().bind(new InetSocketAddress(port));
+                    reactor.Register(channel);
+                    reactor.start();
+                    listening++;
+                    
+                    if(reactors.length > 1 && !shared) {
+                        Log(Globals.LogType.ERROR, "Manager\tSO_REUSEPORT is unavailable, listening to public port with a single socket.");
+                        break;
+                    }
+                }
+                Log(Globals.LogType.SYSTEM, "Manager listening to public port "+port+" through "+listening+" Reactors");
+                for(Reactor reactor: reactors) if(reactor.isAlive()) reactor.join();
+                return;
+            }
             
             //start accepting new connections
             serverSocket = new DatagramSocket(port);
-            byte[] receiveData = new byte[Globals.MAX_PACKET_LENGTH];
+            DatagramPacket packet = new DatagramPacket(new byte[0], 0);
             Log(Globals.LogType.SYSTEM, "Manager listening to public port "+port);
             
             while(running) {
+                PacketBuffer buffer = buffers.Acquire();
                 try {
                     //wait for a new packet
-                    DatagramPacket packet = new DatagramPacket(receiveData, Globals.MAX_PACKET_LENGTH);
+                    packet.setData(buffer.Array());
                     LOCK.lock();
                     serverSocket.receive(packet);
                     LOCK.unlock();
                     
-                    //extract message
-                    byte[] message = Arrays.copyOf(packet.getData(), packet.getLength());
-                    if(message.length < Globals.MIN_PACKET_LENGTH || message.length > Globals.MAX_PACKET_LENGTH) continue; //bad format
-
-                    //get appId of origin
-                    final int peerId = Globals.BytesToInt(message, 3);
-
-                    //retrieve socket remote address
-                    String peerIp = packet.getAddress().getHostAddress();
-
-                    //verify address and id corresponds to a known application
-                    boolean known = false;
-
-                    for(int appId: peerList.keySet()) {
-                        String ip = peerList.get(appId).GetIp();
-                        if(appId == peerId && ip.equals(peerIp)) {
-                            Log(Globals.LogType.SYSTEM, "Manager received new message from Supervisor "+appId);
-
-                            //update connection
-                            if(!peerList.get(appId).IsRunning()) {
-                                int port = peerList.get(appId).GetPort();
-                                peerList.get(peerId).Disconnect();
-                                peerList.put(peerId, new Peer(this, serverSocket, peerId, ip, port));
-                                peerList.get(peerId).start();
-                            }
-
-                            //register message             
-                            NewMessage(peerId, message);
-                            known = true;
-                            break;
-                        }
-                    }
-                
-                    if(!known) {
-                        //Peer not found, sending request to DNS in a separate thread
-                        Log(Globals.LogType.SYSTEM, "Manager received new message from an unknown source "+peerIp+":"+packet.getPort());
-
-                        Timer dnsTask = new Timer();
-                        dnsTask.schedule(new TimerTask() {
-                        @Override
-                        public void run() {
-                            DNSRequest(peerId);
-                        }
-                    }, 0);
-                    }
+                    //messages are handled in place
+                    if(packet.getLength() < Globals.MIN_PACKET_LENGTH) continue; //bad format
+                    
+                    Received(buffer.Array(), packet.getLength(), packet.getAddress(), packet.getPort());
                 } catch(SocketTimeoutException ex) {
                     if(LOCK.isHeldByCurrentThread()) LOCK.unlock();
+                } finally {
+                    buffer.Release();
                 }
             }
             Log(Globals.LogType.SYSTEM, "Manager stopped listening to public port.");
@@ -318,6 +588,64 @@ public class Manager extends Thread implements IDComm{
         }
     };
 
+    //Handle a datagram received on the public port
+    public void Received(byte[] datagram, int length, InetAddress peerAddress, int peerPort) {
+        //get appId of origin
+        final int peerId = Globals.BytesToInt(datagram, 3);
+        Peer peer = peerList.get(peerId);
+        
+        //drop floods before spending anything else on them
+        if(admission != null && !admission.Admit(peerId, peer != null, peerAddress)) return;
+
+        //verify address and id corresponds to a known application
+        if(peer != null && peer.IsAddress(peerAddress)) {
+            Log(Globals.LogType.SYSTEM, "Manager received new message from Supervisor "+peerId);
+
+            //update connection, the Reactor receives for every Supervisor instead
+            if(reactors == null && !peer.IsRunning()) {
+                Peer updated = new Peer(this, serverSocket, peerId, peer.GetIp(), peer.GetPort());
+                if(peerList.replace(peerId, peer, updated)) {
+                    peer.Disconnect();
+                    updated.start();
+                    NegotiateAggregation(peerId);
+                }
+            }
+
+            //register messages, handing responses over to synchronous calls awaiting them
+            if(syncResponses == null || syncResponses.isEmpty()) NewDatagram(peerId, datagram, length);
+            else {
+                int offset = 0;
+                int messageLength;
+                while((messageLength = Globals.MessageLength(datagram, offset, length)) > 0) {
+                    int end = offset+messageLength;
+                    BlockingQueue<byte[]> waiting = Globals.IsBitSet(datagram[offset+6], Globals.ACK_POS) ? syncResponses.get(InFlight.Key(peerId, datagram[offset+5], false)) : null;
+                    //the caller keeps its response, it gets a copy of its own
+                    if(waiting == null || Globals.CKS(datagram, offset, messageLength-1) != datagram[end-1] || !waiting.offer(Arrays.copyOfRange(datagram, offset, end))) dispatcher.NewMessage(peerId, datagram, offset, messageLength);
+                    offset = end;
+                }
+            }
+        }
+        else {
+            //Peer not found, sending request to DNS through the Resolver
+            Log(Globals.LogType.SYSTEM, "Manager received new message from an unknown source "+peerAddress.getHostAddress()+":"+peerPort);
+            resolver.Resolve(peerId);
+        }
+    };
+    
+    //Whether a datagram received by a Peer is within its source's admitted rate
+    public boolean Admit(int appId, InetAddress address) {
+        return admission == null || admission.Admit(appId, true, address);
+    };
+    
+    public AdmissionControl GetAdmissionControl() {
+        return admission;
+    };
+    
+    //Peers receive on threads of their own unless the Reactor does it for them
+    private void StartPeer(Peer peer) {
+        if(reactors == null) peer.start();
+    };
+    
     //////////DNS methods//////////
     public boolean DNSRegistration() {
         Log(Globals.LogType.DNS, "Registrating with DNS.");
@@ -352,7 +680,7 @@ public class Manager extends Thread implements IDComm{
                 Globals.IntToBytes(port, 9, request);
                 
                 //CRC
-                request[11] = Globals.CKS(Arrays.copyOf(request, request.length-1));
+                request[11] = Globals.CKS(request, 0, request.length-1);
                 
                 //send request
                 logger.Log(Globals.LogType.DNS, "Sending registration to DNS.");
@@ -366,7 +694,7 @@ public class Manager extends Thread implements IDComm{
                 socket.close();
                 
                 //verify response's length, CRC and CTR bits
-                if(response.length >= Globals.MIN_PACKET_LENGTH && response[response.length-1] == Globals.CKS(Arrays.copyOf(response, response.length-1)) && Globals.IsBitSet(response[6], Globals.ACK_POS) && !Globals.IsBitSet(response[6], Globals.ERROR_POS)) {
+                if(response.length >= Globals.MIN_PACKET_LENGTH && response[response.length-1] == Globals.CKS(response, 0, response.length-1) && Globals.IsBitSet(response[6], Globals.ACK_POS) && !Globals.IsBitSet(response[6], Globals.ERROR_POS)) {
                     logger.Log(Globals.LogType.DNS, "DNS registration complete.");
                     return true;
                 }                
@@ -413,7 +741,7 @@ public class Manager extends Thread implements IDComm{
                 Globals.IntToBytes(appId, 9, request);
                 
                 //CRC
-                request[11] = Globals.CKS(Arrays.copyOf(request, request.length-1));
+                request[11] = Globals.CKS(request, 0, request.length-1);
                 
                 //send request
                 logger.Log(Globals.LogType.DNS, "Sending request for Application "+appId);
@@ -427,17 +755,30 @@ public class Manager extends Thread implements IDComm{
                 byte[] response = Arrays.copyOf(responsePacket.getData(), responsePacket.getLength());
                 
                 //verify CRC and response bits
-                if(response[response.length-1] == Globals.CKS(Arrays.copyOf(response, response.length-1)) && Globals.IsBitSet(response[6], Globals.ACK_POS) && !Globals.IsBitSet(response[6], Globals.ERROR_POS)) {
+                if(response[response.length-1] == Globals.CKS(response, 0, response.length-1) && Globals.IsBitSet(response[6], Globals.ACK_POS) && !Globals.IsBitSet(response[6], Globals.ERROR_POS)) {
                     //extract peer data
                     String peerIp = (response[9] & 0xFF)+"."+(response[10] & 0xFF)+"."+(response[11] & 0xFF)+"."+(response[12] & 0xFF);
                     int peerPort = Globals.BytesToInt(response, 13);
                     
-                    //add peer to list
-                    peerList.put(appId, new Peer(this, null, appId, peerIp, peerPort));
-                    peerList.get(appId).start();
+                    //add peer to list, or replace it if the Supervisor moved
+                    Peer peer = new Peer(this, null, appId, peerIp, peerPort);
+                    Peer existing = peerList.putIfAbsent(appId, peer);
+                    if(existing != null) {
+                        //unchanged, or a concurrent lookup already replaced it
+                        if(existing.GetIp().equals(peerIp) && existing.GetPort() == peerPort) return;
+                        if(!peerList.replace(appId, existing, peer)) return;
+                        existing.Disconnect();
+                    }
+                    StartPeer(peer);
+                    NegotiateAggregation(appId);
                     
                     //keep peer data to save into the configuration file during the next update task
-                    configAppend.add("\n"+Globals.PREFIX_PEERS+" "+appId+" "+peerIp+" "+peerPort);
+                    SUBSCRIPTIONS.lock();
+                    try {
+                        configAppend.add("\n"+Globals.PREFIX_PEERS+" "+appId+" "+peerIp+" "+peerPort);
+                    } finally {
+                        SUBSCRIPTIONS.unlock();
+                    }
                     
                     logger.Log(Globals.LogType.DNS, "Request fulfilled for Application "+appId+" - "+peerIp+":"+peerPort);
                 }
@@ -454,7 +795,7 @@ public class Manager extends Thread implements IDComm{
     
     
     //////////Sequence numbers handling methods//////////
-    public byte GetSequence(int appId, boolean next) {
+    public synchronized byte GetSequence(int appId, boolean next) {
         if(!currentSequence.containsKey(appId)) currentSequence.put(appId, (byte) 0);
         
         byte seq = currentSequence.get(appId);
@@ -462,21 +803,21 @@ public class Manager extends Thread implements IDComm{
         return seq;
     };
     
-    public void NewSequence(int appId, byte seq) {
+    public synchronized void NewSequence(int appId, byte seq) {
         currentSequence.put(appId, seq);
         AddSequence(appId, seq);
     };
     
-    public void AddSequence(int appId, byte seq) {
+    public synchronized void AddSequence(int appId, byte seq) {
         if(!sequences.containsKey(appId)) sequences.put(appId, new ArrayList<Byte>());
         sequences.get(appId).add(seq);
     };
     
-    public void RemoveSequence(int appId, byte seq) {
+    public synchronized void RemoveSequence(int appId, byte seq) {
         if(sequences.containsKey(appId)) sequences.get(appId).remove((Byte) seq);
     };
     
-    public boolean HasSequence(int appId, byte seq) {
+    public synchronized boolean HasSequence(int appId, byte seq) {
         if(!sequences.containsKey(appId)) return false;
         return (sequences.get(appId).indexOf(seq) != -1);
     };
@@ -492,93 +833,175 @@ public class Manager extends Thread implements IDComm{
         dispatcher.NewMessage(appId, packet);
     };
     
+    //Datagrams from Supervisors aggregating their messages carry several of them
+    public void NewDatagram(int appId, byte[] datagram, int length) {
+        //aggregated messages are handled one after the other, in place
+        int offset = 0;
+        int messageLength;
+        while((messageLength = Globals.MessageLength(datagram, offset, length)) > 0) {
+            dispatcher.NewMessage(appId, datagram, offset, messageLength);
+            offset += messageLength;
+        }
+    };
+    
+    public BufferPool GetBufferPool() {
+        return buffers;
+    };
+    
+    //Offer a Supervisor to aggregate messages in both directions, it accepts by acknowledging
+    private void NegotiateAggregation(int appId) {
+        if(aggregation == null) return;
+        byte[] arguments = new byte[2];
+        Globals.IntToBytes(aggregation[1], 0, arguments);
+        DComm_send_msg_DCOMM(appId, (byte) Globals.DCOMM_AGGREGATION, arguments, false);
+    };
+    
+    //Aggregate messages to a Supervisor able to split them, if configured to
+    public void EnableAggregation(int appId, int maxBytes) {
+        Peer peer = peerList.get(appId);
+        if(aggregation == null || peer == null) return;
+        peer.EnableAggregation(Math.min(maxBytes, aggregation[1]), aggregation[0]);
+    };
+    
     public void CreateMessage(int appId, byte seq, byte CTR, byte[] data) {
         dispatcher.CreateMessage(appId, seq, CTR, data);
     };
     
+    public void CreateMessage(int appId, byte seq, byte CTR, DomoBusPacket source, int from, int to) {
+        dispatcher.CreateMessage(appId, seq, CTR, source, from, to);
+    };
+    
+    //Health of a Supervisor, one of PeerState.UP, SUSPECT or DOWN
+    public int GetPeerHealth(int appId) {
+        return dispatcher.GetPeerState(appId).GetHealth();
+    };
+    
     public boolean AddMessage(boolean priority, byte[] message) {
-        return worker.AddMessage(priority, message);
+        return AddMessage(priority, message, 0, message.length);
+    };
+    
+    public boolean AddMessage(boolean priority, byte[] data, int offset, int length) {
+        //messages from the same Supervisor are always handled by the same Worker, keeping their order
+        return WorkerFor(Globals.BytesToInt(data, offset+3)).AddMessage(priority, data, offset, length);
+    };
+    
+    private Worker WorkerFor(int appId) {
+        return workers[(appId & 0xFFFF) % workers.length];
     };
         
-    public boolean SendTo(int appId, byte[] message) throws IOException {
-        if(peerList.containsKey(appId)) {
-            peerList.get(appId).SendMessage(message);
+    public boolean SendTo(int appId, byte[] message) {
+        Peer peer = peerList.get(appId);
+        if(peer != null) {
+            //queue for the Senders, handing them the Peer if it was idle
+            if(peer.Enqueue(message)) outbound.add(peer);
             return true;
         }
         
-        //Dispatcher takes care of DNS request
-        return false;
+        //unknown Supervisor, the message waits for its lookup
+        return resolver.Park(appId, message);
+    };
+    
+    public boolean IsPeer(int appId) {
+        return peerList.containsKey(appId);
     };
 
     public Object[] SendSyncTo(int appId, byte[] request) throws IOException {
         if (!peerList.containsKey(appId)) {
             //unknown Supervisor, requesting contact
-            DNSRequest(appId);
+            resolver.Resolve(appId);
             throw new IOException();
         }
         
+        //fail fast while the Supervisor is down
+        PeerState state = dispatcher.GetPeerState(appId);
+        if(!state.AllowRequest()) throw new IOException();
+        
         Object[] response = new Object[2];
+        long key = InFlight.Key(appId, request[5], false);
         try {
-            if(!peerList.get(appId).SendSyncMessage(request)) throw new SocketTimeoutException();
-            
-            //acquire timed lock for synchronous call
-            LOCK.tryLock(Globals.CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS);
+            BlockingQueue<byte[]> waiting = null;
+            if(reactors != null) {
+                //the Reactor hands the response over, send from its socket
+                waiting = new ArrayBlockingQueue<>(1);
+                syncResponses.put(key, waiting);
+                if(!reactors[0].Send(request, peerList.get(appId).GetAddress())) throw new SocketTimeoutException();
+            }
+            else {
+                if(!peerList.get(appId).SendSyncMessage(request)) throw new SocketTimeoutException();
+                
+                //acquire timed lock for synchronous call
+                LOCK.tryLock(Globals.CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS);
+            }
             
             //wait for corresponding response or timeout
             long timeout = Calendar.getInstance().getTimeInMillis() + Globals.CONNECTION_TIMEOUT;
             while(true) {
-                if(timeout < Calendar.getInstance().getTimeInMillis()) throw new InterruptedException();
+                long now = Calendar.getInstance().getTimeInMillis();
+                if(timeout < now) throw new InterruptedException();
                 
-                DatagramPacket packet = new DatagramPacket(new byte[Globals.MAX_PACKET_LENGTH], Globals.MAX_PACKET_LENGTH);
-                serverSocket.receive(packet);
-                Log(Globals.LogType.COMMAND, "received new message from Supervisor "+appId);
-                
-                byte[] message = Arrays.copyOf(packet.getData(), packet.getLength());                
-                if(message.length < Globals.MIN_PACKET_LENGTH || Globals.CKS(Arrays.copyOf(message, message.length-1)) != message[message.length-1]) continue; //bad message
-                
-                //process response
-                if(message[5] == request[5] && Globals.BytesToInt(message, 3) == appId) {
-                    //handle error responses
-                    if(Globals.IsBitSet(message[6], Globals.ACK_POS) && Globals.IsBitSet(message[6], Globals.ERROR_POS)) {
-                        response[0] = Globals.ERROR_CTR;
-                        //retrieve error code
-                        response[1] = message[message.length-2];
-                        break;
-                    }
+                byte[] message = null;
+                if(waiting != null) {
+                    message = waiting.poll(timeout - now, TimeUnit.MILLISECONDS);
+                    if(message == null) continue;
+                }
+                else {
+                    DatagramPacket packet = new DatagramPacket(new byte[Globals.MAX_DATAGRAM_LENGTH], Globals.MAX_DATAGRAM_LENGTH);
+                    serverSocket.receive(packet);
+                    Log(Globals.LogType.COMMAND, "received new message from Supervisor "+appId);
                     
-                    //handle ACK responses
-                    int opCode = (((message[6] << 5) & 0xFF) >> 5);
-                    switch(opCode) {
-                        //return ACK and values
-                        case Globals.GET_OPERATION:
-                            response[0] = Globals.ACK_CTR;
-                            response[1] = Arrays.copyOfRange(message, 7, message.length-1);
-                            break;
-                            
-                        //return ACK
-                        case Globals.SET_OPERATION:
-                        case Globals.NOTIFY_OPERATION:
-                        default: //Reserved Operations
-                            response[0] = Globals.ACK_CTR;
-                            break;
-                            
-                        //return ACK and eventual values
-                        case Globals.EXEC_OPERATION:
-                        case Globals.DCOMM_OPERATION:
-                            response[0] = Globals.ACK_CTR;
-                            if(response.length > 10) response[1] = Arrays.copyOfRange(message, 9, message.length-1);
-                            break;
+                    //the response may share its datagram with other messages, send those for processing
+                    for(byte[] next: Globals.SplitDatagram(packet.getData(), packet.getLength())) {
+                        if(message == null && next[5] == request[5] && Globals.BytesToInt(next, 3) == appId && Globals.CKS(next, 0, next.length-1) == next[next.length-1]) message = next;
+                        else NewMessage(appId, next);
                     }
+                    if(message == null) continue;
+                }
+                
+                //handle error responses
+                if(Globals.IsBitSet(message[6], Globals.ACK_POS) && Globals.IsBitSet(message[6], Globals.ERROR_POS)) {
+                    response[0] = Globals.ERROR_CTR;
+                    //retrieve error code
+                    response[1] = message[message.length-2];
                     break;
                 }
                 
-                //send for processing since it is not the expected packet
-                NewMessage(appId, message);  
+                //handle ACK responses
+                int opCode = (((message[6] << 5) & 0xFF) >> 5);
+                switch(opCode) {
+                    //return ACK and values
+                    case Globals.GET_OPERATION:
+                        response[0] = Globals.ACK_CTR;
+                        response[1] = Arrays.copyOfRange(message, 7, message.length-1);
+                        break;
+                        
+                    //return ACK
+                    case Globals.SET_OPERATION:
+                    case Globals.NOTIFY_OPERATION:
+                    default: //Reserved Operations
+                        response[0] = Globals.ACK_CTR;
+                        break;
+                        
+                    //return ACK and eventual values
+                    case Globals.EXEC_OPERATION:
+                    case Globals.DCOMM_OPERATION:
+                        response[0] = Globals.ACK_CTR;
+                        if(response.length > 10) response[1] = Arrays.copyOfRange(message, 9, message.length-1);
+                        break;
+                }
+                break;
             }            
             
+            state.Succeeded();
         } catch(InterruptedException ex) {
             response[0] = Globals.ERROR_CTR;
             response[1] = Globals.ERROR_TIMEOUT;
+            state.Failed();
+        } catch(IOException ex) {
+            //failed to send or receive, also frees the probe slot if this was one
+            state.Failed();
+            throw ex;
+        } finally {
+            if(syncResponses != null) syncResponses.remove(key);
         }
         
         return response;
@@ -592,52 +1015,78 @@ public class Manager extends Thread implements IDComm{
         ArrayList<Integer> tempList = new ArrayList<>();
         tempList.add(appId);
         
-        //add application to subscribers list
-        if(!subscriptions.containsKey(device)) {
-            HashMap<Integer, ArrayList<Integer>> tempMap = new HashMap<>();
-            tempMap.put(property, tempList);
-            subscriptions.put(device, tempMap);
-        }
-        else if(!subscriptions.get(device).containsKey(property)) {
-            subscriptions.get(device).put(property, tempList);
-        }
-        else if(!subscriptions.get(device).get(property).contains(appId)) {
-            subscriptions.get(device).get(property).add(appId);
+        SUBSCRIPTIONS.lock();
+        try {
+            //add application to subscribers list
+            if(!subscriptions.containsKey(device)) {
+                HashMap<Integer, ArrayList<Integer>> tempMap = new HashMap<>();
+                tempMap.put(property, tempList);
+                subscriptions.put(device, tempMap);
+            }
+            else if(!subscriptions.get(device).containsKey(property)) {
+                subscriptions.get(device).put(property, tempList);
+            }
+            else if(!subscriptions.get(device).get(property).contains(appId)) {
+                subscriptions.get(device).get(property).add(appId);
 
+            }
+            else return; //unless it is already subscribed
+            
+            //signal changes to configuration file
+            configurationChanged = true;
+            configAppend.add(Globals.PREFIX_SUBSCRIBERS+" "+device+" "+property+" "+appId);
+        } finally {
+            SUBSCRIPTIONS.unlock();
         }
-        else return; //unless it is already subscribed
-        
-        //signal changes to configuration file
-        configurationChanged = true;
-        configAppend.add(Globals.PREFIX_SUBSCRIBERS+" "+device+" "+property+" "+appId);
         
         Log(Globals.LogType.COMMAND, "Added subscription for Supervisor "+appId+" of property "+property+" from device "+device);
     };
     
     public void RemoveSubscription(int appId, int device, int property) {
-        if(subscriptions.containsKey(device) && subscriptions.get(device).containsKey(property) && subscriptions.get(device).get(property).contains(appId)) {
-            //remove application from subscribers list
-            Log(Globals.LogType.COMMAND, "Removed subscription from Supervisor "+appId+" for property "+property+" from device "+device);
-            subscriptions.get(device).get(property).remove((Integer) appId);
-            
-            //signal changes to configuration file
-            configurationChanged = true;
-            configRemove.add(Globals.PREFIX_SUBSCRIBERS+" "+device+" "+property+" "+appId);
+        SUBSCRIPTIONS.lock();
+        try {
+            if(subscriptions.containsKey(device) && subscriptions.get(device).containsKey(property) && subscriptions.get(device).get(property).contains(appId)) {
+                //remove application from subscribers list
+                Log(Globals.LogType.COMMAND, "Removed subscription from Supervisor "+appId+" for property "+property+" from device "+device);
+                subscriptions.get(device).get(property).remove((Integer) appId);
+                
+                //signal changes to configuration file
+                configurationChanged = true;
+                configRemove.add(Globals.PREFIX_SUBSCRIBERS+" "+device+" "+property+" "+appId);
+            }
+        } finally {
+            SUBSCRIPTIONS.unlock();
         }
     };
     
     public void Unsubscribe(int appId) {
         Log(Globals.LogType.COMMAND, "Removing all subscriptions of Supervisor "+appId);
-        for(int pub: subscriptions.keySet()) for(int prop: subscriptions.get(pub).keySet()) {
-            if(subscriptions.get(pub).get(prop).contains(appId)) {
-                //remove application from subscribers list
-                Log(Globals.LogType.COMMAND, "Removed subscription from Supervisor "+appId+" for property "+prop+" from device "+pub);
-                subscriptions.get(pub).get(prop).remove((Integer) appId);
-                
-                //signal changes to configuration file
-                configurationChanged = true;
-                configRemove.add(Globals.PREFIX_SUBSCRIBERS+" "+pub+" "+prop+" "+appId);                
+        SUBSCRIPTIONS.lock();
+        try {
+            for(int pub: subscriptions.keySet()) for(int prop: subscriptions.get(pub).keySet()) {
+                if(subscriptions.get(pub).get(prop).contains(appId)) {
+                    //remove application from subscribers list
+                    Log(Globals.LogType.COMMAND, "Removed subscription from Supervisor "+appId+" for property "+prop+" from device "+pub);
+                    subscriptions.get(pub).get(prop).remove((Integer) appId);
+                    
+                    //signal changes to configuration file
+                    configurationChanged = true;
+                    configRemove.add(Globals.PREFIX_SUBSCRIBERS+" "+pub+" "+prop+" "+appId);                
+                }
             }
+        } finally {
+            SUBSCRIPTIONS.unlock();
+        }
+    };
+    
+    //Copy of the subscribers of a property, empty if there are none
+    private ArrayList<Integer> Subscribers(int device, int property) {
+        SUBSCRIPTIONS.lock();
+        try {
+            if(!subscriptions.containsKey(device) || !subscriptions.get(device).containsKey(property)) return new ArrayList<>();
+            return new ArrayList<>(subscriptions.get(device).get(property));
+        } finally {
+            SUBSCRIPTIONS.unlock();
         }
     };
     //////////End of Subscriptions management methods//////////
@@ -685,8 +1134,9 @@ public class Manager extends Thread implements IDComm{
     @Override
     public void DComm_send_msg_NOTIFY(int Dev, byte Prop, byte[] value, boolean priority) {
         Log(Globals.LogType.COMMAND, "Generation of asynchronous NOTIFY commands for property "+Prop+" of device "+Dev);
-        //check if there are any subscribers
-        if(!subscriptions.containsKey(Dev) || !subscriptions.get(Dev).containsKey((int)Prop)) {
+        //check if there are any subscribers, other Workers may change them meanwhile
+        ArrayList<Integer> subscribers = Subscribers(Dev, Prop);
+        if(subscribers.isEmpty()) {
             Log(Globals.LogType.COMMAND, "No subscriptions for property "+Prop+" of device "+Dev);
             return;
         }
@@ -730,7 +1180,7 @@ public class Manager extends Thread implements IDComm{
         if(priority) CTR = (byte) (CTR + Globals.PRIORITY_CTR);
         
         //create and send message to all subscribers
-        for(int sub: subscriptions.get(Dev).get((int)Prop)) {
+        for(int sub: subscribers) {
             Log(Globals.LogType.COMMAND, "Notifying Supervisor "+sub+" the current value of property "+Prop+" of device "+Dev+": "+value);
             dispatcher.CreateMessage(sub, GetSequence(sub, true), CTR, data);
         }
@@ -761,7 +1211,7 @@ public class Manager extends Thread implements IDComm{
         //process command if it's destined to this application
         if(appId == id) {
             try {
-                worker.ProcessDCOMM(appId, command, arguments);
+                WorkerFor(appId).ProcessDCOMM(appId, command, arguments);
                 return;
             } catch(UnsupportedCommandException ex) {
                 Log(Globals.LogType.ERROR, "DCOMM commands are unsupported.");
@@ -847,9 +1297,6 @@ public class Manager extends Thread implements IDComm{
         byte CTR = (byte) (Globals.CTR + Globals.SET_OPERATION);
         if(priority) CTR = (byte) (CTR + Globals.PRIORITY_CTR);
         
-        //send a DNS request beforehand if necessary
-        if(!peerList.containsKey(appId)) DNSRequest(appId);
-        
         //create and send message
         try{
             response = SendSyncTo(appId, dispatcher.CreateSyncMessage(appId, GetSequence(appId, true), CTR, data));
@@ -867,9 +1314,9 @@ public class Manager extends Thread implements IDComm{
     @Override
     public byte DComm_send_sync_msg_NOTIFY(int Dev, byte Prop, byte[] value, boolean priority) {
         Log(Globals.LogType.COMMAND, "Generation of synchronous NOTIFY commands for property "+Prop+" of device "+Dev);
-        //check if there are any subscribers
-        if(!subscriptions.containsKey(Dev)) return Globals.ACK_CTR;
-        if(!subscriptions.get(Dev).containsKey((int)Prop)) return Globals.ACK_CTR;
+        //check if there are any subscribers, other Workers may change them meanwhile
+        ArrayList<Integer> subscribers = Subscribers(Dev, Prop);
+        if(subscribers.isEmpty()) return Globals.ACK_CTR;
         
         //check value
         int length = 0;
@@ -914,7 +1361,7 @@ public class Manager extends Thread implements IDComm{
         Map<Integer, Byte> seqs = new HashMap<>();
         int acks = 0;
         
-        for(int sub: subscriptions.get(Dev).get((int)Prop)) {
+        for(int sub: subscribers) {
             seqs.put(sub, GetSequence(sub, true));
             message = dispatcher.CreateSyncMessage(sub, seqs.get(sub), CTR, data);
             Log(Globals.LogType.COMMAND, "Notifying Supervisor "+sub+" the current value of property "+Prop+" of device "+Dev+": "+value);
@@ -928,7 +1375,7 @@ public class Manager extends Thread implements IDComm{
             }
         }
         
-        if(acks == subscriptions.get(Dev).get((int)Prop).size()) {
+        if(acks == subscribers.size()) {
             Log(Globals.LogType.COMMAND, "Notified all subscribers of property "+Prop+" of device "+Dev+": "+value);
             return Globals.ACK_CTR;
         }        
@@ -973,7 +1420,7 @@ public class Manager extends Thread implements IDComm{
         //process command if it's destined to this application
         if(appId == id) {
             try {
-                if(worker.ProcessDCOMM(appId, command, arguments)) {
+                if(WorkerFor(appId).ProcessDCOMM(appId, command, arguments)) {
                     response[0] = Globals.ACK_CTR;
                     Log(Globals.LogType.COMMAND, "The DCOMM function "+command+", with arguments "+arguments+", was locally executed.");
                 }
@@ -0,0 +1,271 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2016 Rafael Afonso Rodrigues
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+**/
+
+package domobus.communications;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ *
+ * @author Rafael Afonso Rodrigues
+ */
+public class MessageQueue {
+    
+    public static final int PRIORITY_LANE = 0;
+    public static final int NORMAL_LANE = 1;
+    private static final int HISTOGRAM_BUCKETS = 32;
+    
+    private RingBuffer priorityLane;
+    private RingBuffer normalLane;
+    private SchedulingPolicy policy;
+    private volatile boolean open;
+    private volatile boolean waiting;
+    private volatile Thread consumer;
+    private RingBuffer current;
+    private Entry entry;
+    private long[] dequeued;
+    private long[] totalLatency;
+    private long[] maxLatency;
+    private long[][] latencyHistogram;
+    private ConflationListener conflationListener;
+    private Map<Long, Long> conflated;
+    private ReentrantLock CONFLATION_LOCK;
+    
+    public MessageQueue(SchedulingPolicy policy) {
+        //lanes are sized twice their limits, leaving room for responses admitted beyond them
+        this.priorityLane = new RingBuffer(2*Globals.PRIORITY_QUEUE_SIZE);
+        this.normalLane = new RingBuffer(2*Globals.QUEUE_SIZE);
+        this.policy = policy;
+        this.open = true;
+        this.entry = new Entry();
+        this.dequeued = new long[2];
+        this.totalLatency = new long[2];
+        this.maxLatency = new long[2];
+        this.latencyHistogram = new long[2][HISTOGRAM_BUCKETS];
+        this.CONFLATION_LOCK = new ReentrantLock();
+    };
+    
+    //Queued NOTIFY commands will be replaced by newer ones for the same device and property
+    public void EnableConflation(ConflationListener listener) {
+        this.conflationListener = listener;
+        this.conflated = new HashMap<>();
+    };
+    
+    public interface ConflationListener {
+        //called with a copy of every NOTIFY command replaced before being processed
+        public void Superseded(byte[] message);
+    }
+    
+    //Copies a message into the queues, may be called from any thread
+    public boolean Add(boolean priority, byte[] message, int offset, int length) {
+        if(!open) return false;
+        if(conflated != null && IsNotifyCommand(message, offset, length)) return AddConflated(priority, message, offset, length);
+        
+        //insert new message
+        if(Insert(priority, message, offset, length) < 0) return false;
+        
+        //wake up consumer
+        if(waiting) LockSupport.unpark(consumer);
+        return true;
+    };
+    
+    //Returns the new message's position, tagged with its lane in the lowest bit, or -1 if queues are full
+    private long Insert(boolean priority, byte[] message, int offset, int length) {
+        long position = priority ? priorityLane.Offer(message, offset, length, Globals.PRIORITY_QUEUE_SIZE) : -1;
+        if(position >= 0) return position << 1 | PRIORITY_LANE;
+        
+        position = normalLane.Offer(message, offset, length, Globals.QUEUE_SIZE);
+        if(position >= 0) return position << 1 | NORMAL_LANE;
+        
+        //this is a response, insert despite queues limits
+        if(Globals.IsBitSet(message[offset+6], Globals.ACK_POS)) {
+            RingBuffer lane = priority ? priorityLane : normalLane;
+            position = lane.Offer(message, offset, length, lane.Capacity());
+            if(position >= 0) return position << 1 | (priority ? PRIORITY_LANE : NORMAL_LANE);
+        }
+        return -1;
+    };
+    
+    private boolean AddConflated(boolean priority, byte[] message, int offset, int length) {
+        Long key = Topic(message, offset);
+        byte[] superseded = null;
+        
+        CONFLATION_LOCK.lock();
+        try {
+            Long queued = conflated.get(key);
+            if(queued != null) {
+                //an older NOTIFY for this topic is still waiting, take its place.
+                //Its lane is kept whatever the new priority, moving lanes could deliver the older value after the newer one
+                RingBuffer lane = (queued & 1) == PRIORITY_LANE ? priorityLane : normalLane;
+                long position = queued >> 1;
+                int index = (int) position & (lane.Capacity()-1);
+                superseded = Arrays.copyOf(lane.Slot(index), lane.Length(index));
+                lane.Overwrite(position, message, offset, length);
+            }
+            else {
+                long position = Insert(priority, message, offset, length);
+                if(position < 0) return false;
+                conflated.put(key, position);
+            }
+        } finally {
+            CONFLATION_LOCK.unlock();
+        }
+        
+        if(superseded != null) conflationListener.Superseded(superseded);
+        else if(waiting) LockSupport.unpark(consumer);
+        return true;
+    };
+    
+    private static boolean IsNotifyCommand(byte[] message, int offset, int length) {
+        int operation = (((message[offset+6] << 5) & 0xff) >> 5);
+        return length > 12 && operation == Globals.NOTIFY_OPERATION && !Globals.IsBitSet(message[offset+6], Globals.ACK_POS);
+    };
+    
+    //Device address and property identifier of a NOTIFY command, regardless of its value type
+    private static Long Topic(byte[] message, int offset) {
+        long key = 0;
+        for(int i = 7; i < 11; i++) key = key << 8 | (message[offset+i] & 0xFF);
+        return key << 5 | (message[offset+11] & 0x1F);
+    };
+    
+    //Blocks until a message is available, returns null once the queue is closed, consumer only
+    //The entry returned is reused and remains valid until Release is called
+    public Entry Take() {
+        return Take(-1);
+    };
+    
+    //Same as Take but gives up after the timeout, in nanoseconds, returning null
+    public Entry Take(long timeout) {
+        consumer = Thread.currentThread();
+        long deadline = System.nanoTime() + timeout;
+        int priorityHead, normalHead;
+        while(true) {
+            if(!open) return null;
+            priorityHead = priorityLane.Peek();
+            normalHead = normalLane.Peek();
+            if(priorityHead >= 0 || normalHead >= 0) break;
+            
+            long remaining = deadline - System.nanoTime();
+            if(timeout >= 0 && remaining <= 0) return null;
+            
+            //announce we are about to park before checking the lanes one last time
+            waiting = true;
+            if(open && priorityLane.Peek() < 0 && normalLane.Peek() < 0) {
+                if(timeout < 0) LockSupport.park(this);
+                else LockSupport.parkNanos(this, remaining);
+            }
+            waiting = false;
+        }
+        
+        //let the scheduling policy pick the lane to serve
+        boolean priority = policy.ServePriority(priorityHead < 0 ? 0 : priorityLane.Length(priorityHead), normalHead < 0 ? 0 : normalLane.Length(normalHead));
+        current = priority ? priorityLane : normalLane;
+        int index = priority ? priorityHead : normalHead;
+        
+        //a NOTIFY leaving the queue can no longer be replaced
+        if(conflated != null && IsNotifyCommand(current.Slot(index), 0, current.Length(index))) {
+            CONFLATION_LOCK.lock();
+            try {
+                Long key = Topic(current.Slot(index), 0);
+                Long queued = conflated.get(key);
+                if(queued != null && queued == (current.Head() << 1 | (priority ? PRIORITY_LANE : NORMAL_LANE))) conflated.remove(key);
+            } finally {
+                CONFLATION_LOCK.unlock();
+            }
+        }
+        
+        entry.message = current.Slot(index);
+        entry.length = current.Length(index);
+        entry.priority = priority;
+        entry.arrival = current.Arrival(index);
+        
+        //account time spent waiting in queue
+        int lane = priority ? PRIORITY_LANE : NORMAL_LANE;
+        entry.latency = System.nanoTime() - entry.arrival;
+        dequeued[lane]++;
+        totalLatency[lane] += entry.latency;
+        if(entry.latency > maxLatency[lane]) maxLatency[lane] = entry.latency;
+        latencyHistogram[lane][Math.min(HISTOGRAM_BUCKETS-1, 64-Long.numberOfLeadingZeros(entry.latency/1000))]++;
+        return entry;
+    };
+    
+    //Frees the slot of the last entry taken, consumer only
+    public void Release() {
+        if(current == null) return;
+        entry.message = null;
+        current.Release();
+        current = null;
+    };
+    
+    public void Close() {
+        open = false;
+        Thread thread = consumer;
+        if(thread != null) LockSupport.unpark(thread);
+    };
+    
+    public int Size() {
+        return priorityLane.Size() + normalLane.Size();
+    };
+    
+    public boolean IsOpen() {
+        return open;
+    };
+    
+    //Statistics are kept by the consumer, other threads only get an approximate view
+    public long GetDequeued(int lane) {
+        return dequeued[lane];
+    };
+    
+    //average enqueue-to-dequeue latency of a lane, in nanoseconds
+    public long GetAverageLatency(int lane) {
+        return dequeued[lane] == 0 ? 0 : totalLatency[lane]/dequeued[lane];
+    };
+    
+    //highest enqueue-to-dequeue latency of a lane, in nanoseconds
+    public long GetMaxLatency(int lane) {
+        return maxLatency[lane];
+    };
+    
+    //upper bound, in microseconds, of the wait time below which the given fraction of a lane's messages were served
+    public long GetLatencyPercentile(int lane, double fraction) {
+        long target = (long) Math.ceil(dequeued[lane]*fraction), seen = 0;
+        for(int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            seen += latencyHistogram[lane][i];
+            if(seen >= target) return i == 0 ? 0 : 1L << i;
+        }
+        return Long.MAX_VALUE;
+    };
+    
+    public static class Entry {
+        public byte[] message;
+        public int length;
+        public boolean priority;
+        public long arrival;
+        public long latency;
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2016 Rafael Afonso Rodrigues
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+**/
+
+package domobus.communications;
+
+/**
+ *
+ * @author Rafael Afonso Rodrigues
+ */
+public class NotifyBatch {
+    
+    private int size;
+    private int capacity;
+    private byte[] devAddrs;
+    private byte[] propDescs;
+    private byte[] values;
+    private int[] valueOffsets;
+    private int[] origins;
+    private byte[] sequences;
+    private byte[] controls;
+    
+    public NotifyBatch(int capacity) {
+        this.capacity = capacity;
+        this.devAddrs = new byte[4*capacity];
+        this.propDescs = new byte[capacity];
+        this.values = new byte[Globals.MAX_PACKET_LENGTH*capacity];
+        this.valueOffsets = new int[capacity+1];
+        this.origins = new int[capacity];
+        this.sequences = new byte[capacity];
+        this.controls = new byte[capacity];
+    };
+    
+    //Appends the NOTIFY held by a packet, returns false once the batch is full
+    boolean Add(DomoBusPacket packet) {
+        if(size == capacity) return false;
+        
+        packet.CopyRange(7, 11, devAddrs, 4*size);
+        propDescs[size] = packet.NotifyPropDesc();
+        int valueLength = packet.Length()-13;
+        packet.CopyRange(12, packet.Length()-1, values, valueOffsets[size]);
+        valueOffsets[size+1] = valueOffsets[size] + valueLength;
+        origins[size] = packet.Origin();
+        sequences[size] = packet.Sequence();
+        controls[size] = packet.Control();
+        size++;
+        return true;
+    };
+    
+    void Clear() {
+        size = 0;
+    };
+    
+    public int Size() {
+        return size;
+    };
+    
+    public boolean IsFull() {
+        return size == capacity;
+    };
+    
+    //device addresses, 4 bytes per NOTIFY starting at 4*index
+    public byte[] DevAddrs() {
+        return devAddrs;
+    };
+    
+    public byte[] PropDescs() {
+        return propDescs;
+    };
+    
+    //values of all NOTIFY commands, one after the other
+    public byte[] Values() {
+        return values;
+    };
+    
+    public int ValueOffset(int index) {
+        return valueOffsets[index];
+    };
+    
+    public int ValueLength(int index) {
+        return valueOffsets[index+1] - valueOffsets[index];
+    };
+    
+    //appId of the Supervisor which sent the NOTIFY
+    public int Origin(int index) {
+        return origins[index];
+    };
+    
+    byte Sequence(int index) {
+        return sequences[index];
+    };
+    
+    byte Control(int index) {
+        return controls[index];
+    };
+}
@@ -0,0 +1,84 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2016 Rafael Afonso Rodrigues
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+**/
+
+package domobus.communications;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ *
+ * @author Rafael Afonso Rodrigues
+ */
+public class PacketBuffer {
+    
+    private BufferPool pool;
+    private byte[] data;
+    private ByteBuffer buffer;
+    private int length;
+    private AtomicBoolean held;
+    //where the buffer was last acquired, only kept while tracking leaks
+    Throwable origin;
+    
+    PacketBuffer(BufferPool pool, int capacity) {
+        this.pool = pool;
+        this.data = new byte[capacity];
+        this.buffer = ByteBuffer.wrap(data);
+        this.held = new AtomicBoolean();
+    };
+    
+    //Taken from the pool by a single stage
+    void Acquired() {
+        length = 0;
+        buffer.clear();
+        held.set(true);
+    };
+    
+    //Returns the buffer to the pool, its bytes must not be read afterwards
+    public void Release() {
+        if(!held.compareAndSet(true, false)) throw new IllegalStateException("PacketBuffer released more than once");
+        pool.Recycle(this);
+    };
+    
+    public byte[] Array() {
+        return data;
+    };
+    
+    //View of the whole buffer for channels, the received length is set from its position
+    public ByteBuffer Buffer() {
+        return buffer;
+    };
+    
+    public int GetLength() {
+        return length;
+    };
+    
+    public void SetLength(int length) {
+        this.length = length;
+    };
+    
+    public int GetCapacity() {
+        return data.length;
+    };
+}
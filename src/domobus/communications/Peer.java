@@ -28,16 +28,21 @@ import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Delayed;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
  *
  * @author Rafael Afonso Rodrigues
  */
-public class Peer extends Thread{
+public class Peer extends Thread implements Delayed{
     private Manager manager;
     private int appId;
     private int port;
@@ -45,6 +50,18 @@ public class Peer extends Thread{
     private DatagramSocket socket;
     private boolean running;
     private ReentrantLock LOCK;
+    private InetSocketAddress address;
+    private ConcurrentLinkedQueue<Outgoing> outbound;
+    private Outgoing held;
+    private AtomicInteger queued;
+    private AtomicBoolean scheduled;
+    private volatile long due;
+    private volatile int maxDatagram;
+    private volatile long aggregationWindow;
+    private volatile long sentMessages;
+    private volatile long sentDatagrams;
+    private volatile long totalLatency;
+    private volatile long maxLatency;
     
     public Peer(Manager manager, DatagramSocket socket, int appId, String ip, int port) {
         this.manager = manager;
@@ -53,6 +70,9 @@ public class Peer extends Thread{
         this.ip = ip;
         this.port = port;
         this.LOCK = new ReentrantLock(true);
+        this.outbound = new ConcurrentLinkedQueue<>();
+        this.queued = new AtomicInteger();
+        this.scheduled = new AtomicBoolean();
     };
     
     @Override
@@ -72,31 +92,132 @@ public class Peer extends Thread{
         }
         
         manager.Log(Globals.LogType.SYSTEM, "listening to Supervisor "+appId);
+        BufferPool buffers = manager.GetBufferPool();
+        DatagramPacket packet = new DatagramPacket(new byte[0], 0);
         while(running) {
+            PacketBuffer buffer = buffers.Acquire();
             try {
                 //wait for a new message
                 LOCK.lock();
-                DatagramPacket packet = new DatagramPacket(new byte[Globals.MAX_PACKET_LENGTH], Globals.MAX_PACKET_LENGTH);
+                packet.setData(buffer.Array());
                 socket.receive(packet);
                 LOCK.unlock();
                 
+                //drop floods before dispatching them
+                if(packet.getLength() < Globals.MIN_PACKET_LENGTH || !manager.Admit(appId, packet.getAddress())) continue;
+                
                 //send for processing
-                manager.NewMessage(this.appId, packet.getData());
+                manager.NewDatagram(this.appId, buffer.Array(), packet.getLength());
             } catch (Exception ex) {
                 if(LOCK.isHeldByCurrentThread()) LOCK.unlock();
+            } finally {
+                buffer.Release();
             }
         }
         running = false;
     };
     
-    public void SendMessage(byte[] message) throws IOException {
-        LOCK.lock();
-        try {
-            socket.send(new DatagramPacket(message, message.length));
-            manager.Log(Globals.LogType.COMMAND, "sent new message to Supervisor "+appId);
-        } finally {
-            LOCK.unlock();
+    //Queues a message for the Senders, returns true if this Peer must be handed to them
+    public boolean Enqueue(byte[] message) {
+        outbound.add(new Outgoing(message, System.nanoTime()));
+        queued.incrementAndGet();
+        if(!scheduled.compareAndSet(false, true)) return false; //already awaiting a Sender
+        
+        //give other messages the aggregation window to join this one
+        due = System.nanoTime() + aggregationWindow;
+        return true;
+    };
+    
+    //Next message to send, Senders only
+    Outgoing Next() {
+        Outgoing next = held;
+        if(next != null) held = null;
+        else next = outbound.poll();
+        return next;
+    };
+    
+    //Keeps a message taken but not sent to be the next one, Senders only
+    void Hold(Outgoing message) {
+        held = message;
+    };
+    
+    //A Sender is done with this Peer, returns true if it must be handed back to them after the given delay
+    boolean Release(long delay) {
+        if(held != null || !outbound.isEmpty()) {
+            due = System.nanoTime() + delay;
+            return true;
         }
+        scheduled.set(false);
+        
+        //a message queued meanwhile may have found us still scheduled
+        if(outbound.isEmpty() || !scheduled.compareAndSet(false, true)) return false;
+        due = System.nanoTime();
+        return true;
+    };
+    
+    //Accounts messages that left the queue, sent in a datagram or not
+    void Sent(int messages, long latency, long oldest, boolean sent) {
+        queued.addAndGet(-messages);
+        if(!sent) return;
+        sentMessages += messages;
+        sentDatagrams++;
+        totalLatency += latency;
+        if(oldest > maxLatency) maxLatency = oldest;
+    };
+    
+    @Override
+    public long getDelay(TimeUnit unit) {
+        return unit.convert(due - System.nanoTime(), TimeUnit.NANOSECONDS);
+    };
+    
+    @Override
+    public int compareTo(Delayed other) {
+        return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+    };
+    
+    //Messages will share datagrams of up to maxBytes, sent at most window milliseconds after their first message
+    public void EnableAggregation(int maxBytes, long window) {
+        if(maxDatagram > 0) return;
+        this.aggregationWindow = TimeUnit.MILLISECONDS.toNanos(Math.max(0, window));
+        this.maxDatagram = Math.max(Globals.MAX_PACKET_LENGTH, Math.min(maxBytes, Globals.MAX_DATAGRAM_LENGTH));
+        manager.Log(Globals.LogType.SYSTEM, "aggregating messages to Supervisor "+appId+" in datagrams of up to "+maxDatagram+" bytes");
+    };
+    
+    //Largest datagram to send, 0 if messages are sent one per datagram
+    public int GetMaxDatagram() {
+        return maxDatagram;
+    };
+    
+    //Whether a datagram's source is this Peer's host, comparing raw addresses
+    public boolean IsAddress(InetAddress source) {
+        InetAddress host = GetAddress().getAddress();
+        return host != null && host.equals(source);
+    };
+    
+    public InetSocketAddress GetAddress() {
+        if(address == null) address = new InetSocketAddress(ip, port);
+        return address;
+    };
+    
+    public int GetQueueDepth() {
+        return queued.get();
+    };
+    
+    public long GetSentMessages() {
+        return sentMessages;
+    };
+    
+    public long GetSentDatagrams() {
+        return sentDatagrams;
+    };
+    
+    //Nanoseconds messages waited on average between being queued and sent
+    public long GetAverageSendLatency() {
+        return sentMessages == 0 ? 0 : totalLatency/sentMessages;
+    };
+    
+    public long GetMaxSendLatency() {
+        return maxLatency;
     };
     
     public boolean SendSyncMessage(byte[] request) throws IOException {
@@ -133,4 +254,21 @@ public class Peer extends Thread{
     public boolean IsRunning() {
         return running;
     };
+    
+    public static class Outgoing {
+        byte[] message;
+        long enqueued;
+        int messages;
+        
+        public Outgoing(byte[] message, long enqueued) {
+            this(message, enqueued, 1);
+        };
+        
+        //Several messages already coalesced into a datagram
+        public Outgoing(byte[] message, long enqueued, int messages) {
+            this.message = message;
+            this.enqueued = enqueued;
+            this.messages = messages;
+        };
+    }
 }
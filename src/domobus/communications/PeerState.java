@@ -0,0 +1,229 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2016 Rafael Afonso Rodrigues
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+**/
+
+package domobus.communications;
+
+import java.util.ArrayDeque;
+
+/**
+ *
+ * @author Rafael Afonso Rodrigues
+ */
+public class PeerState {
+    
+    public static final int SEND = 0;
+    public static final int QUEUED = 1;
+    public static final int REJECTED = 2;
+    public static final int UP = 0;
+    public static final int SUSPECT = 1;
+    public static final int DOWN = 2;
+    
+    private int appId;
+    private double window;
+    private int maxWindow;
+    private double threshold;
+    private int inFlight;
+    private boolean[] outstanding;
+    private ArrayDeque<byte[]> pending;
+    private double smoothedRtt;
+    private double rttVariance;
+    private long retransmissionTimeout;
+    private long minTimeout;
+    private long maxTimeout;
+    private int health;
+    private int failures;
+    private int suspectAfter;
+    private int downAfter;
+    private long openDuration;
+    private long downSince;
+    private boolean probing;
+    private long lastResponse;
+    private long lastDecrease;
+    private long lastFailure;
+    
+    public PeerState(int appId, int initialWindow, int maxWindow, long minTimeout, long maxTimeout) {
+        this.appId = appId;
+        //windows never exceed half the sequence numbers, so those in flight can't alias each other
+        this.maxWindow = Math.max(1, Math.min(maxWindow, Globals.SEQUENCE_NUMBERS/2));
+        this.window = Math.max(1, Math.min(initialWindow, this.maxWindow));
+        this.threshold = this.maxWindow;
+        this.outstanding = new boolean[Globals.SEQUENCE_NUMBERS];
+        this.pending = new ArrayDeque<>();
+        this.minTimeout = Math.max(1, minTimeout);
+        this.maxTimeout = Math.max(this.minTimeout, maxTimeout);
+        this.smoothedRtt = -1;
+        this.retransmissionTimeout = Math.max(this.minTimeout, Math.min(this.maxTimeout, Globals.RESTRANSMISSION_PERIOD));
+        this.health = UP;
+        this.lastResponse = System.nanoTime();
+        SetHealthThresholds(Globals.SUSPECT_FAILURES, Globals.DOWN_FAILURES, Globals.BREAKER_OPEN_DURATION);
+    };
+    
+    //Consecutive failures before the destination is suspected and taken down, and milliseconds it stays down before being probed
+    public synchronized void SetHealthThresholds(int suspectAfter, int downAfter, long openDuration) {
+        this.downAfter = Math.max(1, downAfter);
+        this.suspectAfter = Math.max(1, Math.min(suspectAfter, this.downAfter));
+        this.openDuration = openDuration*1000000;
+    };
+    
+    public int GetAppId() {
+        return appId;
+    };
+    
+    //Admits a new command if the window allows it, otherwise keeps it until there's room
+    public synchronized int Submit(byte[] message) {
+        if(pending.isEmpty() && Admit(message[5])) return SEND;
+        if(pending.size() >= Globals.PENDING_QUEUE_SIZE) return REJECTED;
+        pending.add(message);
+        return QUEUED;
+    };
+    
+    //Next pending command allowed by the window, if any, keeping their order
+    public synchronized byte[] Next() {
+        if(pending.isEmpty() || !Admit(pending.peek()[5])) return null;
+        return pending.poll();
+    };
+    
+    //A command left the window, the window grows if it was acknowledged
+    public synchronized void Release(byte seq, boolean acknowledged) {
+        if(!outstanding[seq & 0xFF]) return;
+        outstanding[seq & 0xFF] = false;
+        inFlight--;
+        if(!acknowledged) return;
+        
+        //slow start doubles the window every round trip until the threshold, then additive increase
+        if(window < threshold) window = Math.min(threshold, window + 1);
+        else window = Math.min(maxWindow, window + 1/window);
+    };
+    
+    //Destination is overloaded or dropping messages, multiplicative decrease at most once per round trip, returns whether it applied
+    public synchronized boolean Congested() {
+        //signals within a timeout of the last decrease belong to the same overload event
+        long now = System.nanoTime();
+        if(lastDecrease != 0 && now - lastDecrease < retransmissionTimeout*1000000) return false;
+        lastDecrease = now;
+        window = Math.max(1, window/2);
+        threshold = window;
+        return true;
+    };
+    
+    private boolean Admit(byte seq) {
+        //a sequence number still awaiting its response holds back the commands behind it
+        if(inFlight >= (int) window || outstanding[seq & 0xFF]) return false;
+        outstanding[seq & 0xFF] = true;
+        inFlight++;
+        return true;
+    };
+    
+    //Round trip time, in nanoseconds, of a message acknowledged without being retransmitted
+    public synchronized void SampleRtt(long rtt) {
+        double sample = rtt/1000000.0;
+        if(smoothedRtt < 0) {
+            //first measurement
+            smoothedRtt = sample;
+            rttVariance = sample/2;
+        }
+        else {
+            rttVariance = 0.75*rttVariance + 0.25*Math.abs(smoothedRtt - sample);
+            smoothedRtt = 0.875*smoothedRtt + 0.125*sample;
+        }
+        
+        //timeout covers the variance but never drops below the timers' resolution
+        long timeout = (long) Math.ceil(smoothedRtt + Math.max(Globals.TIMER_TICK, 4*rttVariance));
+        retransmissionTimeout = Math.max(minTimeout, Math.min(maxTimeout, timeout));
+    };
+    
+    //Milliseconds to wait for a response before retransmitting
+    public synchronized long GetRetransmissionTimeout() {
+        return retransmissionTimeout;
+    };
+    
+    //Smoothed round trip time in milliseconds, negative until measured
+    public synchronized double GetSmoothedRtt() {
+        return smoothedRtt;
+    };
+    
+    //Something was received from the destination, returns its previous health
+    public synchronized int Succeeded() {
+        int previous = health;
+        health = UP;
+        failures = 0;
+        probing = false;
+        lastResponse = System.nanoTime();
+        return previous;
+    };
+    
+    //A command to the destination timed out, returns its new health
+    public synchronized int Failed() {
+        long now = System.nanoTime();
+        if(health == DOWN) {
+            //the probe failed too, stay down for another period
+            if(probing) {
+                probing = false;
+                downSince = now;
+            }
+            return health;
+        }
+        
+        //timeouts within a timeout of the last one counted belong to the same stall
+        if(failures > 0 && now - lastFailure < retransmissionTimeout*1000000) return health;
+        lastFailure = now;
+        failures++;
+        if(failures >= downAfter) {
+            health = DOWN;
+            downSince = now;
+        }
+        else if(failures >= suspectAfter) health = SUSPECT;
+        return health;
+    };
+    
+    //Commands fail fast while the destination is down, except for a single probe once its period is over
+    public synchronized boolean AllowRequest() {
+        if(health != DOWN) return true;
+        if(probing || System.nanoTime() - downSince < openDuration) return false;
+        probing = true;
+        return true;
+    };
+    
+    //Whether the destination is worth a heartbeat, having been silent for the given nanoseconds or not being up
+    public synchronized boolean NeedsHeartbeat(long period) {
+        if(health == DOWN) return !probing && System.nanoTime() - downSince >= openDuration;
+        return health == SUSPECT || System.nanoTime() - lastResponse >= period;
+    };
+    
+    public synchronized int GetHealth() {
+        return health;
+    };
+    
+    public synchronized int GetWindow() {
+        return (int) window;
+    };
+    
+    public synchronized int GetInFlight() {
+        return inFlight;
+    };
+    
+    public synchronized int GetPending() {
+        return pending.size();
+    };
+}
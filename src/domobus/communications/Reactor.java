@@ -0,0 +1,147 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2016 Rafael Afonso Rodrigues
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+**/
+
+package domobus.communications;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+
+/**
+ *
+ * @author Rafael Afonso Rodrigues
+ */
+public class Reactor extends Thread{
+    
+    private Manager manager;
+    private Selector selector;
+    private DatagramChannel channel;
+    private BufferPool buffers;
+    private volatile boolean running;
+    private long receivedDatagrams;
+    private long discardedDatagrams;
+    
+    public Reactor(Manager manager, int index) throws IOException {
+        super("Reactor-"+index);
+        this.manager = manager;
+        this.selector = Selector.open();
+        this.buffers = manager.GetBufferPool();
+        setDaemon(true);
+    };
+    
+    //Multiplex a channel, to be called before starting the Reactor. The first one registered also sends synchronous commands
+    public void Register(DatagramChannel channel) throws IOException {
+        channel.configureBlocking(false);
+        if(this.channel == null) this.channel = channel;
+        channel.register(selector, SelectionKey.OP_READ);
+    };
+    
+    //Let several channels bind the same port, the kernel spreading flows across them. Only possible where the runtime knows SO_REUSEPORT
+    @SuppressWarnings("unchecked")
+    public static boolean ReusePort(DatagramChannel channel) {
+        try {
+            SocketOption<Boolean> option = (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+            channel.setOption(option, true);
+            return true;
+        } catch(ReflectiveOperationException | UnsupportedOperationException | IOException ex) {
+            return false;
+        }
+    };
+    
+    public void Stop() {
+        running = false;
+        selector.wakeup();
+    };
+    
+    //Send a datagram straight away, returns false if the socket buffer is full
+    public boolean Send(byte[] datagram, InetSocketAddress address) throws IOException {
+        return channel.send(ByteBuffer.wrap(datagram), address) > 0;
+    };
+    
+    @Override
+    public void run() {
+        manager.Log(Globals.LogType.SYSTEM, "Reactor running.");
+        
+        running = true;
+        while(running) {
+            try {
+                //wait for any channel to have datagrams
+                selector.select();
+                
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while(keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if(key.isValid() && key.isReadable()) Receive((DatagramChannel) key.channel());
+                }
+            } catch(ClosedSelectorException ex) {
+                break;
+            } catch(IOException | RuntimeException ex) {
+                manager.Log(Globals.LogType.ERROR, "ReactorException\t"+ex);
+            }
+        }
+        
+        try {
+            for(SelectionKey key: selector.keys()) key.channel().close();
+            selector.close();
+        } catch(IOException ex) {
+            manager.Log(Globals.LogType.ERROR, "ReactorCloseException\t"+ex);
+        }
+        manager.Log(Globals.LogType.SYSTEM, "Reactor stopped after receiving "+receivedDatagrams+" datagrams, "+discardedDatagrams+" discarded.");
+    };
+    
+    //Drain a readable channel, up to a batch so other channels aren't starved
+    private void Receive(DatagramChannel source) throws IOException {
+        for(int datagrams = 0; datagrams < Globals.RECEIVE_BATCH; datagrams++) {
+            PacketBuffer buffer = buffers.Acquire();
+            try {
+                InetSocketAddress address = (InetSocketAddress) source.receive(buffer.Buffer());
+                if(address == null) return; //nothing left
+                buffer.SetLength(buffer.Buffer().position());
+                
+                receivedDatagrams++;
+                if(buffer.GetLength() < Globals.MIN_PACKET_LENGTH) {
+                    discardedDatagrams++;
+                    continue; //bad format
+                }
+                
+                //messages are handled in place
+                manager.Received(buffer.Array(), buffer.GetLength(), address.getAddress(), address.getPort());
+            } finally {
+                buffer.Release();
+            }
+        }
+    };
+    
+    public long GetReceivedDatagrams() {
+        return receivedDatagrams;
+    };
+}
@@ -0,0 +1,194 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2016 Rafael Afonso Rodrigues
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+**/
+
+package domobus.communications;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ *
+ * @author Rafael Afonso Rodrigues
+ */
+public class Resolver {
+    
+    private Manager manager;
+    private ThreadPoolExecutor lookups;
+    //messages parked per unknown Supervisor, an entry exists while its lookup is in flight
+    private Map<Integer, List<byte[]>> pending;
+    private int maxParked;
+    private ReentrantLock LOCK;
+    private long parkedMessages;
+    private long droppedMessages;
+    private long resolved;
+    private long unresolved;
+    
+    public Resolver(Manager manager, int threads, int maxLookups, int maxParked) {
+        this.manager = manager;
+        this.pending = new HashMap<>();
+        this.maxParked = maxParked;
+        this.LOCK = new ReentrantLock();
+        this.lookups = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(maxLookups), new ThreadFactory() {
+            private int count = 0;
+            
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "Resolver-"+(count++));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    };
+    
+    //Look up a Supervisor unless a lookup is already in flight
+    public void Resolve(int appId) {
+        Park(appId, null);
+    };
+    
+    //Keep a message until its Supervisor is resolved, returns false if it had to be dropped. Messages are kept as given, callers must leave them untouched
+    public boolean Park(int appId, byte[] message) {
+        List<byte[]> parked;
+        boolean lookup = false;
+        
+        LOCK.lock();
+        try {
+            parked = pending.get(appId);
+            if(parked == null) {
+                parked = new ArrayList<>();
+                pending.put(appId, parked);
+                lookup = true;
+            }
+            
+            if(message != null) {
+                if(parked.size() >= maxParked) {
+                    droppedMessages++;
+                    return false;
+                }
+                parked.add(message);
+                parkedMessages++;
+            }
+        } finally {
+            LOCK.unlock();
+        }
+        
+        if(lookup) Submit(appId);
+        return true;
+    };
+    
+    private void Submit(final int appId) {
+        try {
+            lookups.execute(new Runnable() {
+                @Override
+                public void run() {
+                    manager.DNSRequest(appId);
+                    Flush(appId);
+                }
+            });
+        } catch(RejectedExecutionException ex) {
+            //too many lookups outstanding or shutting down, retransmissions will ask again
+            manager.Log(Globals.LogType.ERROR, "Too many DNS requests pending, discarding the one for Supervisor "+appId);
+            Flush(appId);
+        }
+    };
+    
+    //Hand parked messages over in one batch once the lookup is over, or drop them if it failed
+    private void Flush(int appId) {
+        List<byte[]> parked;
+        LOCK.lock();
+        try {
+            parked = pending.remove(appId);
+        } finally {
+            LOCK.unlock();
+        }
+        if(parked == null) return;
+        
+        if(!manager.IsPeer(appId)) {
+            //still unknown, retransmissions will trigger another lookup
+            LOCK.lock();
+            try {
+                unresolved++;
+                droppedMessages += parked.size();
+            } finally {
+                LOCK.unlock();
+            }
+            if(!parked.isEmpty()) manager.Log(Globals.LogType.ERROR, "Supervisor "+appId+" could not be resolved, dropping "+parked.size()+" parked messages.");
+            return;
+        }
+        
+        LOCK.lock();
+        try {
+            resolved++;
+        } finally {
+            LOCK.unlock();
+        }
+        for(byte[] message: parked) manager.SendTo(appId, message);
+        if(!parked.isEmpty()) manager.Log(Globals.LogType.DNS, "Sent "+parked.size()+" parked messages to Supervisor "+appId);
+    };
+    
+    public void Stop() {
+        lookups.shutdownNow();
+        System.out.println("Stopping Resolver.");
+        LOCK.lock();
+        try {
+            manager.Log(Globals.LogType.SYSTEM, "Resolver stopped after resolving "+resolved+" Supervisors, "+unresolved+" unresolved, "+parkedMessages+" messages parked, "+droppedMessages+" dropped.");
+        } finally {
+            LOCK.unlock();
+        }
+    };
+    
+    public int GetPending() {
+        LOCK.lock();
+        try {
+            return pending.size();
+        } finally {
+            LOCK.unlock();
+        }
+    };
+    
+    public long GetParkedMessages() {
+        LOCK.lock();
+        try {
+            return parkedMessages;
+        } finally {
+            LOCK.unlock();
+        }
+    };
+    
+    public long GetDroppedMessages() {
+        LOCK.lock();
+        try {
+            return droppedMessages;
+        } finally {
+            LOCK.unlock();
+        }
+    };
+}
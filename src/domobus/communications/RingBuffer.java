@@ -0,0 +1,130 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2016 Rafael Afonso Rodrigues
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+**/
+
+package domobus.communications;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ *
+ * @author Rafael Afonso Rodrigues
+ */
+public class RingBuffer {
+    
+    private final int capacity;
+    private final int mask;
+    private final byte[][] slots;
+    private final int[] lengths;
+    private final long[] arrivals;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail;
+    private volatile long head;
+    
+    //Bounded multi-producer single-consumer buffer of packets, capacity is rounded up to a power of two
+    public RingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity)-1) << 1;
+        this.capacity = size;
+        this.mask = size-1;
+        this.slots = new byte[size][Globals.MAX_PACKET_LENGTH];
+        this.lengths = new int[size];
+        this.arrivals = new long[size];
+        this.sequences = new AtomicLongArray(size);
+        for(int i = 0; i < size; i++) sequences.set(i, i);
+        this.tail = new AtomicLong();
+        this.head = 0;
+    };
+    
+    public int Capacity() {
+        return capacity;
+    };
+    
+    public int Size() {
+        return (int) (tail.get() - head);
+    };
+    
+    //Copies a packet into the next free slot, unless limit packets are already queued
+    //Returns the position given to the packet, -1 if it wasn't accepted
+    public long Offer(byte[] packet, int offset, int length, int limit) {
+        if(length > Globals.MAX_PACKET_LENGTH) return -1;
+        
+        long position;
+        int index;
+        while(true) {
+            position = tail.get();
+            if(position - head >= limit) return -1;
+            
+            index = (int) position & mask;
+            long sequence = sequences.get(index);
+            if(sequence < position) return -1; //slot still held by the consumer
+            if(sequence == position && tail.compareAndSet(position, position+1)) break;
+        }
+        
+        //fill claimed slot and publish it
+        System.arraycopy(packet, offset, slots[index], 0, length);
+        lengths[index] = length;
+        arrivals[index] = System.nanoTime();
+        sequences.set(index, position+1);
+        return position;
+    };
+    
+    //Replaces the packet of a slot still waiting for the consumer, callers must coordinate with it
+    //The slot is aged from the replacement's arrival
+    public void Overwrite(long position, byte[] packet, int offset, int length) {
+        int index = (int) position & mask;
+        System.arraycopy(packet, offset, slots[index], 0, length);
+        lengths[index] = length;
+        arrivals[index] = System.nanoTime();
+    };
+    
+    public long Head() {
+        return head;
+    };
+    
+    //Slot index at the head of the buffer, -1 if no packet was published yet, consumer only
+    public int Peek() {
+        long position = head;
+        int index = (int) position & mask;
+        return sequences.get(index) == position+1 ? index : -1;
+    };
+    
+    public byte[] Slot(int index) {
+        return slots[index];
+    };
+    
+    public int Length(int index) {
+        return lengths[index];
+    };
+    
+    public long Arrival(int index) {
+        return arrivals[index];
+    };
+    
+    //Hands the head slot back to producers, consumer only
+    public void Release() {
+        long position = head;
+        sequences.set((int) position & mask, position+capacity);
+        head = position+1;
+    };
+}
@@ -0,0 +1,146 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2016 Rafael Afonso Rodrigues
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+**/
+
+package domobus.communications;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * @author Rafael Afonso Rodrigues
+ */
+public class Sender extends Thread{
+    
+    private Manager manager;
+    private int index;
+    private DelayQueue<Peer> ready;
+    private DatagramChannel channel;
+    private ByteBuffer buffer;
+    private volatile boolean sending;
+    private long sentMessages;
+    private long sentDatagrams;
+    private long failedDatagrams;
+    private long stalls;
+    
+    public Sender(Manager manager, int index, DelayQueue<Peer> ready) throws IOException {
+        super("Sender-"+index);
+        this.manager = manager;
+        this.index = index;
+        this.ready = ready;
+        this.channel = DatagramChannel.open();
+        channel.configureBlocking(false);
+        this.buffer = ByteBuffer.allocateDirect(Globals.MAX_DATAGRAM_LENGTH);
+        setDaemon(true);
+    };
+    
+    public void Stop() {
+        sending = false;
+        interrupt();
+        System.out.println("Stopping Sender "+index+".");
+    };
+    
+    @Override
+    public void run() {
+        manager.Log(Globals.LogType.SYSTEM, "Sender "+index+" running.");
+        
+        sending = true;
+        while(sending) {
+            Peer peer;
+            try {
+                //wait for a Peer with messages due
+                peer = ready.take();
+            } catch(InterruptedException ex) {
+                continue; //stopping
+            }
+            
+            long delay = Drain(peer);
+            if(peer.Release(delay)) ready.add(peer);
+        }
+        
+        try {
+            channel.close();
+        } catch(IOException ex) {
+            manager.Log(Globals.LogType.ERROR, "SenderCloseException\t"+ex);
+        }
+        manager.Log(Globals.LogType.SYSTEM, "Sender "+index+" stopped after sending "+sentMessages+" messages in "+sentDatagrams+" datagrams, "+failedDatagrams+" failed, socket full "+stalls+" times.");
+    };
+    
+    //Sends a batch of a Peer's messages, returns how long to wait before serving it again
+    private long Drain(Peer peer) {
+        int limit = peer.GetMaxDatagram();
+        InetSocketAddress address = peer.GetAddress();
+        
+        for(int datagrams = 0; datagrams < Globals.SEND_BATCH; datagrams++) {
+            Peer.Outgoing first = peer.Next();
+            if(first == null) return 0; //queue drained
+            
+            //coalesce following messages into the datagram while they fit, if the Supervisor splits them
+            buffer.clear();
+            buffer.put(first.message);
+            int messages = first.messages;
+            long enqueued = first.messages*first.enqueued;
+            Peer.Outgoing next;
+            while(limit > 0 && (next = peer.Next()) != null) {
+                if(buffer.position() + next.message.length > limit) {
+                    peer.Hold(next);
+                    break;
+                }
+                buffer.put(next.message);
+                enqueued += next.messages*next.enqueued;
+                messages += next.messages;
+            }
+            buffer.flip();
+            
+            try {
+                if(channel.send(buffer, address) == 0) {
+                    //socket buffer is full, keep the datagram as it is for the next attempt
+                    byte[] datagram = new byte[buffer.limit()];
+                    buffer.rewind();
+                    buffer.get(datagram);
+                    peer.Hold(new Peer.Outgoing(datagram, first.enqueued, messages));
+                    stalls++;
+                    return TimeUnit.MILLISECONDS.toNanos(Globals.TIMER_TICK)/10;
+                }
+                
+                long now = System.nanoTime();
+                peer.Sent(messages, messages*now - enqueued, now - first.enqueued, true);
+                sentMessages += messages;
+                sentDatagrams++;
+            } catch(IOException | RuntimeException ex) {
+                //left for the Dispatcher to retransmit
+                peer.Sent(messages, 0, 0, false);
+                failedDatagrams++;
+                manager.Log(Globals.LogType.COMMAND, "failed to transmit message to Supervisor at "+address);
+            }
+        }
+        
+        //batch done, let other Peers be served
+        return 0;
+    };
+}
@@ -0,0 +1,193 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2016 Rafael Afonso Rodrigues
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+**/
+
+package domobus.communications;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ *
+ * @author Rafael Afonso Rodrigues
+ */
+public class TimerWheel {
+    
+    private Timeout[] buckets;
+    private int mask;
+    private long tickDuration;
+    private long start;
+    private long tick;
+    private long wakeTick;
+    private int size;
+    private boolean open;
+    private ReentrantLock LOCK;
+    private Condition scheduled;
+    
+    //The wheel is rounded up to a power of two buckets, each spanning a tick in milliseconds
+    public TimerWheel(int wheelSize, long tickDuration) {
+        int capacity = Integer.highestOneBit(Math.max(2, wheelSize-1)) << 1;
+        this.buckets = new Timeout[capacity];
+        this.mask = capacity-1;
+        this.tickDuration = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickDuration));
+        this.start = System.nanoTime();
+        this.wakeTick = Long.MAX_VALUE;
+        this.open = true;
+        this.LOCK = new ReentrantLock();
+        this.scheduled = LOCK.newCondition();
+    };
+    
+    //Arms a timeout, or moves it if already armed, to fire after the given delay in nanoseconds
+    public void Schedule(Timeout timeout, long delay) {
+        LOCK.lock();
+        try {
+            if(timeout.bucket >= 0) Unlink(timeout);
+            
+            //deadlines are rounded up to the tick they fall in, never before the tick about to be processed
+            timeout.deadline = System.nanoTime() + delay;
+            long deadlineTick = Math.max(tick, (timeout.deadline - start + tickDuration - 1) / tickDuration);
+            Link(timeout, (int) (deadlineTick & mask));
+            
+            //wake up the consumer if it sleeps past this deadline
+            if(deadlineTick < wakeTick) scheduled.signal();
+        } finally {
+            LOCK.unlock();
+        }
+    };
+    
+    //Disarms a timeout, returns false if it wasn't armed
+    public boolean Cancel(Timeout timeout) {
+        LOCK.lock();
+        try {
+            if(timeout.bucket < 0) return false;
+            Unlink(timeout);
+            return true;
+        } finally {
+            LOCK.unlock();
+        }
+    };
+    
+    //Sleeps until some timeouts are due and moves them to the given list, returns false once closed
+    public boolean Expire(List<Timeout> expired) {
+        LOCK.lock();
+        try {
+            while(open) {
+                long now = System.nanoTime();
+                
+                //process every tick elapsed so far, timeouts of later rounds stay in their buckets
+                long current = (now - start) / tickDuration;
+                for(; tick <= current; tick++) {
+                    Timeout timeout = buckets[(int) (tick & mask)];
+                    while(timeout != null) {
+                        Timeout next = timeout.next;
+                        if(timeout.deadline - now <= 0) {
+                            Unlink(timeout);
+                            expired.add(timeout);
+                        }
+                        timeout = next;
+                    }
+                }
+                if(!expired.isEmpty()) return true;
+                
+                //sleep until the next tick holding timeouts, or until one is scheduled
+                wakeTick = NextTick();
+                try {
+                    if(wakeTick == Long.MAX_VALUE) scheduled.await();
+                    else scheduled.awaitNanos(start + wakeTick*tickDuration - now);
+                } catch(InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                } finally {
+                    wakeTick = Long.MAX_VALUE;
+                }
+            }
+            return false;
+        } finally {
+            LOCK.unlock();
+        }
+    };
+    
+    public void Close() {
+        LOCK.lock();
+        try {
+            open = false;
+            scheduled.signalAll();
+        } finally {
+            LOCK.unlock();
+        }
+    };
+    
+    public int Size() {
+        LOCK.lock();
+        try {
+            return size;
+        } finally {
+            LOCK.unlock();
+        }
+    };
+    
+    private long NextTick() {
+        if(size == 0) return Long.MAX_VALUE;
+        for(long next = tick; next < tick+buckets.length; next++) {
+            if(buckets[(int) (next & mask)] != null) return next;
+        }
+        return tick;
+    };
+    
+    private void Link(Timeout timeout, int bucket) {
+        timeout.bucket = bucket;
+        timeout.prev = null;
+        timeout.next = buckets[bucket];
+        if(timeout.next != null) timeout.next.prev = timeout;
+        buckets[bucket] = timeout;
+        size++;
+    };
+    
+    private void Unlink(Timeout timeout) {
+        if(timeout.prev != null) timeout.prev.next = timeout.next;
+        else buckets[timeout.bucket] = timeout.next;
+        if(timeout.next != null) timeout.next.prev = timeout.prev;
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.bucket = -1;
+        size--;
+    };
+    
+    //Timeouts are linked directly into the wheel, extend this class to attach what they refer to
+    public static class Timeout {
+        private Timeout prev;
+        private Timeout next;
+        private int bucket = -1;
+        private long deadline;
+        
+        public boolean IsScheduled() {
+            return bucket >= 0;
+        };
+        
+        public long GetDeadline() {
+            return deadline;
+        };
+    }
+}
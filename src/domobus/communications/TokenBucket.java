@@ -0,0 +1,69 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2016 Rafael Afonso Rodrigues
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+**/
+
+package domobus.communications;
+
+/**
+ *
+ * @author Rafael Afonso Rodrigues
+ */
+public class TokenBucket {
+    
+    private double tokens;
+    private double capacity;
+    private double rate;
+    private long last;
+    
+    //Refills at the given rate of tokens per second, holding at most capacity tokens, starts full
+    public TokenBucket(double rate, double capacity) {
+        this.rate = Math.max(0, rate)/1000000000.0;
+        this.capacity = Math.max(1, capacity);
+        this.tokens = this.capacity;
+        this.last = System.nanoTime();
+    };
+    
+    public synchronized boolean TryAcquire() {
+        Refill();
+        if(tokens < 1) return false;
+        tokens--;
+        return true;
+    };
+    
+    //Adds tokens on top of the refill rate, never beyond capacity
+    public synchronized void Deposit(double amount) {
+        Refill();
+        tokens = Math.min(capacity, tokens + amount);
+    };
+    
+    public synchronized double GetTokens() {
+        Refill();
+        return tokens;
+    };
+    
+    private void Refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - last)*rate);
+        last = now;
+    };
+}
@@ -0,0 +1,64 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2016 Rafael Afonso Rodrigues
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+**/
+
+package domobus.communications;
+
+/**
+ *
+ * @author Rafael Afonso Rodrigues
+ */
+public class WeightedRoundRobinPolicy implements SchedulingPolicy {
+    
+    private int priorityWeight;
+    private int normalWeight;
+    private int priorityServed;
+    private int normalServed;
+    
+    public WeightedRoundRobinPolicy(int priorityWeight, int normalWeight) {
+        this.priorityWeight = Math.max(1, priorityWeight);
+        this.normalWeight = Math.max(1, normalWeight);
+    };
+    
+    @Override
+    public boolean ServePriority(int priorityHead, int normalHead) {
+        //a single busy lane is served without spending its turns
+        if(normalHead == 0) return true;
+        if(priorityHead == 0) return false;
+        
+        //serve up to priorityWeight messages then up to normalWeight messages per round
+        if(priorityServed < priorityWeight) {
+            priorityServed++;
+            return true;
+        }
+        if(normalServed < normalWeight) {
+            normalServed++;
+            return false;
+        }
+        
+        //start a new round
+        priorityServed = 1;
+        normalServed = 0;
+        return true;
+    };
+}
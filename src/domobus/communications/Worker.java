@@ -25,237 +25,399 @@
 package domobus.communications;
 
 import java.util.Arrays;
-import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
 
 /**
  *
  * @author Rafael Afonso Rodrigues
  */
-public class Worker extends Thread{
+public class Worker extends Thread implements MessageQueue.ConflationListener{
     
     private IDComm API;
     private Manager manager;
     private boolean processing;
-    private LinkedList<byte[]> processingQueue;
-    private LinkedList<byte[]> priorityQueue;
+    private int index;
+    private MessageQueue queue;
+    private CallbackExecutor executor;
+    private int highWatermark;
+    private int lowWatermark;
+    private volatile boolean congested;
+    private IDCommBatch batchAPI;
+    private NotifyBatch notifications;
+    private long batchDelay;
+    private long batchDeadline;
+    private DomoBusPacket packet;
+    private long[] deadlines;
+    private boolean replyExpired;
+    private long[] expired;
     
-    public Worker(IDComm API, Manager manager) {
+    public Worker(IDComm API, Manager manager, int index, CallbackExecutor executor, SchedulingPolicy policy) {
+        super("Worker-"+index);
         this.API = API;
         this.manager = manager;
-        processingQueue = new LinkedList<>();
-        priorityQueue = new LinkedList<>();
+        this.index = index;
+        this.queue = new MessageQueue(policy);
+        this.executor = executor;
+        this.packet = new DomoBusPacket();
+        this.deadlines = new long[8];
+        this.expired = new long[8];
+        SetWatermarks(Globals.HIGH_WATERMARK, Globals.LOW_WATERMARK);
+        Arrays.fill(deadlines, TimeUnit.MILLISECONDS.toNanos(Globals.COMMAND_DEADLINE));
+    };
+    
+    //Watermarks are given as percentages of the normal queue size
+    public void SetWatermarks(int high, int low) {
+        this.highWatermark = Math.max(1, Globals.QUEUE_SIZE*high/100);
+        this.lowWatermark = Math.min(highWatermark, Globals.QUEUE_SIZE*low/100);
+    };
+    
+    //Deadlines are given in milliseconds for each operation code, commands never expire if not positive
+    public void SetDeadlines(int[] deadlines, boolean reply) {
+        for(int i = 0; i < this.deadlines.length; i++) this.deadlines[i] = TimeUnit.MILLISECONDS.toNanos(deadlines[i]);
+        this.replyExpired = reply;
     };
     
     public void Stop() {
         processing = false;
-        System.out.println("Stopping Worker.");
+        queue.Close();
+        System.out.println("Stopping Worker "+index+".");
     };
     
     @Override
     public void run() {
-        manager.Log(Globals.LogType.SYSTEM, "Worker running.");
+        manager.Log(Globals.LogType.SYSTEM, "Worker "+index+" running.");
         
         processing = true;
         while(processing) {
-            byte[] message;
-            //retrieve next message
-            message = priorityQueue.poll();
-            if (message != null) {
-                manager.Log(Globals.LogType.COMMAND, "Processing new command from priority queue.");
-                ProcessMessage(message);
+            //pending notifications are due even while messages keep arriving
+            if(notifications != null && notifications.Size() > 0 && System.nanoTime() >= batchDeadline) FlushNotifications();
+            
+            //wait for next message, or until pending notifications are due
+            MessageQueue.Entry next;
+            if(notifications == null || notifications.Size() == 0) next = queue.Take();
+            else next = queue.Take(Math.max(0, batchDeadline - System.nanoTime()));
+            
+            if(next == null) {
+                if(notifications != null && notifications.Size() > 0) FlushNotifications();
+                if(!queue.IsOpen()) break; //queue closed
+                continue;
             }
-            else {
-                message = processingQueue.poll();
-                if(message != null) {
-                    manager.Log(Globals.LogType.COMMAND, "Processing new command from normal queue.");
-                    ProcessMessage(message);
-                }
-                else try {
-                    //queues are empty, sleep
-                    Thread.sleep(Globals.VACATION_DURATION);
-                    continue;
-                } catch (InterruptedException ex) {
-                    manager.Log(Globals.LogType.ERROR, "WorkerVacationException\t"+ex);
-                }
-            }            
+            
+            packet.Wrap(next.message, 0, next.length);
+            
+            //its sender has already retransmitted or given up on a command past its deadline, skip it
+            long deadline = deadlines[packet.Operation()];
+            if(deadline > 0 && next.latency > deadline && !packet.IsAck()) {
+                Expire(packet, next.latency);
+                queue.Release();
+                continue;
+            }
+            
+            manager.Log(Globals.LogType.COMMAND, "Processing new command from "+(next.priority ? "priority" : "normal")+" queue, queued for "+TimeUnit.NANOSECONDS.toMicros(next.latency)+"us.");
+            ProcessMessage(packet);
+            
+            //message processed, free its slot
+            queue.Release();
         }
-        manager.Log(Globals.LogType.SYSTEM, "Worker stopped.");
+        manager.Log(Globals.LogType.SYSTEM, "Worker "+index+" stopped.");
+        LogLatency("priority", MessageQueue.PRIORITY_LANE);
+        LogLatency("normal", MessageQueue.NORMAL_LANE);
+        LogExpired();
     };
     
     public boolean AddMessage(boolean priority, byte[] message) {
-        //insert new message
-        if(priority && priorityQueue.size()<Globals.PRIORITY_QUEUE_SIZE) priorityQueue.add(message);
-        else if(processingQueue.size()<Globals.QUEUE_SIZE) processingQueue.add(message);
+        return AddMessage(priority, message, 0, message.length);
+    };
+    
+    public boolean AddMessage(boolean priority, byte[] data, int offset, int length) {
+        //refuse new normal commands from the high watermark until the queue drains below the low watermark
+        int size = queue.Size();
+        if(congested && size <= lowWatermark) congested = false;
+        else if(!congested && size >= highWatermark) congested = true;
+        boolean refused = congested && !priority && !Globals.IsBitSet(data[offset+6], Globals.ACK_POS);
+        
+        //copy new message into the queues, waking up the worker
+        if(!refused && queue.Add(priority, data, offset, length)) return true;
         
-        //this is a response, insert despite queues limits
-        else if(Globals.IsBitSet(message[6], Globals.ACK_POS)) {
-            if(priority) priorityQueue.add(message);
-            else processingQueue.add(message);
+        //queues are full, ignore
+        manager.DComm_callback_process_ERROR(Globals.ERROR_QUEUES_FULL, Arrays.copyOfRange(data, offset, offset+length));
+        return false;
+    };
+    
+    public MessageQueue GetQueue() {
+        return queue;
+    };
+    
+    public boolean IsCongested() {
+        return congested;
+    };
+    
+    public void EnableConflation() {
+        queue.EnableConflation(this);
+    };
+    
+    //NOTIFY commands will be delivered in batches, if the API supports it
+    public void EnableBatching(int size, long delay) {
+        if(!(API instanceof IDCommBatch)) {
+            manager.Log(Globals.LogType.SYSTEM, "Worker "+index+" keeps delivering NOTIFY commands one by one, the API doesn't implement IDCommBatch.");
+            return;
         }
-        else {
-            //queues are full, ignore
-            manager.DComm_callback_process_ERROR(Globals.ERROR_QUEUES_FULL, message);
-            return false;
+        this.batchAPI = (IDCommBatch) API;
+        this.notifications = new NotifyBatch(size);
+        this.batchDelay = TimeUnit.MILLISECONDS.toNanos(delay);
+    };
+    
+    private void QueueNotification(DomoBusPacket packet) {
+        if(notifications.Size() == 0) batchDeadline = System.nanoTime() + batchDelay;
+        notifications.Add(packet);
+        if(notifications.IsFull()) FlushNotifications();
+    };
+    
+    private void FlushNotifications() {
+        boolean supported = true;
+        try {
+            manager.Log(Globals.LogType.COMMAND, "Delivering a batch of "+notifications.Size()+" NOTIFY commands.");
+            batchAPI.DComm_callback_process_NOTIFY_BATCH(notifications);
+        } catch(UnsupportedCommandException ex) {
+            manager.Log(Globals.LogType.ERROR, "Unsupported batch of "+notifications.Size()+" NOTIFY commands.");
+            supported = false;
         }
         
-        return true;
+        //acknowledge every NOTIFY command of the batch with the payload it would get if processed alone
+        for(int i = 0; i < notifications.Size(); i++) {
+            int appId = notifications.Origin(i);
+            byte seq = notifications.Sequence(i);
+            byte CTR = notifications.Control(i);
+            
+            if(!Globals.IsBitSet(CTR, Globals.ACK_POS)) {
+                if(supported) {
+                    byte[] data = new byte[4 + notifications.ValueLength(i)];
+                    System.arraycopy(notifications.DevAddrs(), 4*i, data, 0, 4);
+                    if(data.length > 4) {
+                        data[4] = notifications.PropDescs()[i];
+                        System.arraycopy(notifications.Values(), notifications.ValueOffset(i), data, 5, data.length-5);
+                    }
+                    manager.CreateMessage(appId, seq, (byte) (CTR + Globals.ACK_CTR), data);
+                }
+                else manager.CreateMessage(appId, seq, (byte) (Globals.CTR + Globals.ACK_CTR + Globals.ERROR_CTR), new byte[]{Globals.ERROR_UNSUPPORTED_COMMAND});
+            }
+            manager.RemoveSequence(manager.SelfId(), seq);
+        }
+        notifications.Clear();
     };
     
-    public void ProcessMessage(byte[] message) {
+    @Override
+    public void Superseded(byte[] message) {
+        //a newer value replaced this NOTIFY while queued, acknowledge it without delivering it
+        int appId = Globals.BytesToInt(message, 3);
+        manager.Log(Globals.LogType.COMMAND, "Acknowledging conflated NOTIFY command from Supervisor "+appId);
+        byte CTR = (byte) (message[6] + Globals.ACK_CTR);
+        manager.CreateMessage(appId, message[5], CTR, Arrays.copyOfRange(message, 7, message.length-2));
+        manager.RemoveSequence(Globals.BytesToInt(message, 1), message[5]);
+    };
+    
+    private void Expire(DomoBusPacket packet, long latency) {
+        int appId = packet.Origin();
+        expired[packet.Operation()]++;
+        manager.Log(Globals.LogType.ERROR, "Command "+packet.Sequence()+" of type "+packet.Operation()+" from Supervisor "+appId+" expired after waiting "+TimeUnit.NANOSECONDS.toMillis(latency)+"ms in queue.");
+        
+        //reply with a timeout error if the sender may still be waiting for it
+        if(replyExpired) {
+            byte CTR = (byte) (Globals.CTR + Globals.ACK_CTR + Globals.ERROR_CTR);
+            manager.CreateMessage(appId, packet.Sequence(), CTR, new byte[]{Globals.ERROR_TIMEOUT});
+        }
+        manager.RemoveSequence(packet.Destination(), packet.Sequence());
+    };
+    
+    public long GetExpired(int operation) {
+        return expired[operation];
+    };
+    
+    private void LogExpired() {
+        long total = 0;
+        for(long count: expired) total += count;
+        if(total == 0) return;
+        manager.Log(Globals.LogType.SYSTEM, "Worker "+index+" expired "+total+" commands: "+expired[Globals.GET_OPERATION]+" GET, "+expired[Globals.SET_OPERATION]+" SET, "+expired[Globals.NOTIFY_OPERATION]+" NOTIFY, "+expired[Globals.EXEC_OPERATION]+" EXEC, "+expired[Globals.DCOMM_OPERATION]+" DCOMM.");
+    };
+    
+    private void LogLatency(String name, int lane) {
+        manager.Log(Globals.LogType.SYSTEM, "Worker "+index+" served "+queue.GetDequeued(lane)+" messages from the "+name+" queue, waiting on average "+TimeUnit.NANOSECONDS.toMicros(queue.GetAverageLatency(lane))+"us, 99th percentile below "+queue.GetLatencyPercentile(lane, 0.99)+"us, at most "+TimeUnit.NANOSECONDS.toMicros(queue.GetMaxLatency(lane))+"us.");
+    };
+    
+    public void ProcessMessage(DomoBusPacket packet) {
+        int operation = packet.Operation();
+        
+        //commands whose callbacks may block are run by the executor, if any, which sends back their responses
+        boolean blocking = operation != Globals.NOTIFY_OPERATION && operation != Globals.DCOMM_OPERATION;
+        if(executor != null && blocking && !packet.IsAck()) {
+            //the queue slot is released once we return, keep a copy for the callback
+            final DomoBusPacket copy = new DomoBusPacket().Wrap(packet.ToArray(), 0, packet.Length());
+            executor.Execute(packet.Origin(), operation, new Runnable() {
+                @Override
+                public void run() {
+                    HandleMessage(copy);
+                }
+            });
+            return;
+        }
+        HandleMessage(packet);
+    };
+    
+    private void HandleMessage(DomoBusPacket packet) {
         byte CTR, function;
         byte[] arguments;
         
         //check operation code
-        int operation = (((message[6] << 5) & 0xff) >> 5);
+        int operation = packet.Operation();
         
         //retrieve application of origin
-        int appId = Globals.BytesToInt(message, 3);
+        int appId = packet.Origin();
+        int length = packet.Length();
         
         try {
             switch(operation) {
                 case Globals.GET_OPERATION:
                     //GET operation code
-                    manager.Log(Globals.LogType.COMMAND, "Processing GET command from Supervisor "+appId+": "+Arrays.copyOfRange(message, 7, message.length-2));
-                    ProcessGet(message);
+                    manager.Log(Globals.LogType.COMMAND, "Processing GET command "+packet.Sequence()+" from Supervisor "+appId);
+                    ProcessGet(packet);
                     break;
 
                 case Globals.SET_OPERATION:
                     //SET operation code
-                    manager.Log(Globals.LogType.COMMAND, "Processing SET command from Supervisor "+appId+": "+Arrays.copyOfRange(message, 7, message.length-2));
-                    ProcessSet(message);
+                    manager.Log(Globals.LogType.COMMAND, "Processing SET command "+packet.Sequence()+" from Supervisor "+appId);
+                    ProcessSet(packet);
                     break;
 
                 case Globals.NOTIFY_OPERATION:
                     //NOTIFY operation code
+                    if(notifications != null && length > 12) {
+                        //delivered and acknowledged with the rest of its batch
+                        QueueNotification(packet);
+                        return;
+                    }
                     
-                    manager.Log(Globals.LogType.COMMAND, "Received NOTIFY command from Supervisor "+appId+": "+Arrays.copyOfRange(message, 7, message.length-2));
-                    ProcessNotify(Arrays.copyOfRange(message, 7, message.length-1));                    
+                    manager.Log(Globals.LogType.COMMAND, "Received NOTIFY command "+packet.Sequence()+" from Supervisor "+appId);
+                    ProcessNotify(packet);
                     
-                    if(Globals.IsBitSet(message[6], Globals.ACK_POS)) {
+                    if(packet.IsAck()) {
                         manager.Log(Globals.LogType.COMMAND, "Received NOTIFY acknowledge from Supervisor "+appId);
                         break;
                     }
                     
                     //send back ACK
-                    manager.Log(Globals.LogType.COMMAND, "Acknowledging NOTIFY command from Supervisor "+appId+": "+Arrays.copyOfRange(message, 7, message.length-2));
-                    appId = Globals.BytesToInt(message, 3);
-                    CTR = (byte) (message[6] + Globals.ACK_CTR);
-                    manager.CreateMessage(appId, message[5], CTR, Arrays.copyOfRange(message, 7, message.length-2));
+                    manager.Log(Globals.LogType.COMMAND, "Acknowledging NOTIFY command "+packet.Sequence()+" from Supervisor "+appId);
+                    CTR = (byte) (packet.Control() + Globals.ACK_CTR);
+                    manager.CreateMessage(appId, packet.Sequence(), CTR, packet, 7, length-2);
                     break;
 
                 case Globals.EXEC_OPERATION:
-                    function = message[8];
-                    arguments = Arrays.copyOfRange(message, 9, message.length-1);
+                    function = packet.Function();
+                    arguments = packet.Arguments();
                     
                     //EXEC operation code, execute and set response's CTR accordingly
-                    manager.Log(Globals.LogType.COMMAND, "Processing EXEC command from Supervisor "+appId+": "+Arrays.copyOfRange(message, 7, message.length-2));
+                    manager.Log(Globals.LogType.COMMAND, "Processing EXEC command "+packet.Sequence()+" from Supervisor "+appId);
                     
-                    if(Globals.IsBitSet(message[6], Globals.ACK_POS)) {
+                    if(packet.IsAck()) {
                         manager.Log(Globals.LogType.COMMAND, "Received EXEC acknowledge from Supervisor "+appId);
                         API.DComm_callback_process_EXEC(function, arguments);
                         break;
                     }
                     
-                    CTR = (byte) (message[6] + Globals.ACK_CTR);
+                    CTR = (byte) (packet.Control() + Globals.ACK_CTR);
                     if(!ProcessExec(appId, function, arguments)) {
-                        manager.Log(Globals.LogType.COMMAND, "Responding to EXEC command with an error: "+Arrays.copyOfRange(message, 7, message.length-2));
+                        manager.Log(Globals.LogType.COMMAND, "Responding to EXEC command "+packet.Sequence()+" with an error.");
                         CTR += Globals.ERROR_CTR;
                     }
-                    else manager.Log(Globals.LogType.COMMAND, "Responding to EXEC command with an acknowledgement: "+Arrays.copyOfRange(message, 7, message.length-2));
+                    else manager.Log(Globals.LogType.COMMAND, "Responding to EXEC command "+packet.Sequence()+" with an acknowledgement.");
                     
                     //send back response
-                    manager.CreateMessage(appId, message[5], CTR, Arrays.copyOfRange(message, 7, message.length-2));
+                    manager.CreateMessage(appId, packet.Sequence(), CTR, packet, 7, length-2);
                     break;
 
                 case Globals.DCOMM_OPERATION:
-                    function = message[8];
-                    arguments = Arrays.copyOfRange(message, 9, message.length-1);
+                    function = packet.Function();
+                    arguments = packet.Arguments();
                     
                     //DCOMM operation code, execute and set response's CTR accordingly
-                    manager.Log(Globals.LogType.COMMAND, "Processing DCOMM command from Supervisor "+appId+": "+Arrays.copyOfRange(message, 7, message.length-2));
+                    manager.Log(Globals.LogType.COMMAND, "Processing DCOMM command "+packet.Sequence()+" from Supervisor "+appId);
                     
-                    if(Globals.IsBitSet(message[6], Globals.ACK_POS)) {
+                    if(packet.IsAck()) {
                         manager.Log(Globals.LogType.COMMAND, "Received DCOMM acknowledge from Supervisor "+appId);
+                        
+                        //the Supervisor is able to split datagrams carrying several messages
+                        if(function == Globals.DCOMM_AGGREGATION && !packet.IsError()) manager.EnableAggregation(appId, Globals.MAX_DATAGRAM_LENGTH);
                         break;
                     }
                     
-                    CTR = (byte) (message[6] + Globals.ACK_CTR);
+                    CTR = (byte) (packet.Control() + Globals.ACK_CTR);
                     if(!ProcessDCOMM(appId, function, arguments)) {
-                        manager.Log(Globals.LogType.COMMAND, "Responding to DCOMM command with an error: "+Arrays.copyOfRange(message, 7, message.length-2));
+                        manager.Log(Globals.LogType.COMMAND, "Responding to DCOMM command "+packet.Sequence()+" with an error.");
                         CTR += Globals.ERROR_CTR;
                     }
-                    else manager.Log(Globals.LogType.COMMAND, "Responding to DCOMM command with an acknowledgement: "+Arrays.copyOfRange(message, 7, message.length-2));
+                    else manager.Log(Globals.LogType.COMMAND, "Responding to DCOMM command "+packet.Sequence()+" with an acknowledgement.");
                     
                     //send back response
-                    manager.CreateMessage(appId, message[5], CTR, Arrays.copyOfRange(message, 7, message.length-2));
+                    manager.CreateMessage(appId, packet.Sequence(), CTR, packet, 7, length-2);
                     break;
 
                 default:
                     //RESERVED operation code
-                    manager.Log(Globals.LogType.COMMAND, "Processing RESERVED command of type "+operation+" from Supervisor "+appId+": "+Arrays.copyOfRange(message, 7, message.length-2));
+                    manager.Log(Globals.LogType.COMMAND, "Processing RESERVED command of type "+operation+" from Supervisor "+appId);
                     
-                    if(Globals.IsBitSet(message[6], Globals.ACK_POS)) {
+                    if(packet.IsAck()) {
                         manager.Log(Globals.LogType.COMMAND, "Received EXEC acknowledge from Supervisor "+appId);
-                        API.DComm_callback_process_EXEC((byte)operation, Arrays.copyOfRange(message, 7, message.length-2));
+                        API.DComm_callback_process_EXEC((byte)operation, packet.CopyRange(7, length-2));
                         break;
                     }
                     
-                    CTR = (byte) (message[6] + Globals.ACK_CTR);
-                    if (!ProcessReserved(appId, (byte)operation, Arrays.copyOfRange(message, 7, message.length-2))) {
-                        manager.Log(Globals.LogType.COMMAND, "Responding to RESERVED command of type "+operation+" with an error: "+message);
+                    CTR = (byte) (packet.Control() + Globals.ACK_CTR);
+                    if (!ProcessReserved(appId, (byte)operation, packet.CopyRange(7, length-2))) {
+                        manager.Log(Globals.LogType.COMMAND, "Responding to RESERVED command of type "+operation+" with an error.");
                         CTR += Globals.ERROR_CTR;
                     }
-                    else manager.Log(Globals.LogType.COMMAND, "Responding to RESERVED command of type "+operation+" with an acknowledgement: "+message);
+                    else manager.Log(Globals.LogType.COMMAND, "Responding to RESERVED command of type "+operation+" with an acknowledgement.");
                     
                     //send back response
-                    manager.CreateMessage(appId, message[5], CTR, Arrays.copyOfRange(message, 7, message.length-2));              
+                    manager.CreateMessage(appId, packet.Sequence(), CTR, packet, 7, length-2);
                     break;
             }
         } catch(UnsupportedCommandException ex) {
             //command not supported, reply with error
-            manager.Log(Globals.LogType.ERROR, "Unsupported command of type "+operation+" received from Supervisor "+appId+": "+message);
+            manager.Log(Globals.LogType.ERROR, "Unsupported command of type "+operation+" received from Supervisor "+appId);
             
             //toggle ERROR bit in CTR field
             CTR = (byte) (Globals.CTR + Globals.ACK_CTR + Globals.ERROR_CTR);
             
             //send error
-            appId = Globals.BytesToInt(message, 3);
-            manager.CreateMessage(appId, message[5], CTR, new byte[]{Globals.ERROR_UNSUPPORTED_COMMAND});
+            manager.CreateMessage(appId, packet.Sequence(), CTR, new byte[]{Globals.ERROR_UNSUPPORTED_COMMAND});
         }
         
         //message processed, remove sequence number
-        manager.RemoveSequence(Globals.BytesToInt(message, 1), message[5]);
+        manager.RemoveSequence(packet.Destination(), packet.Sequence());
     };
     
-    public void ProcessGet(byte[] message) throws UnsupportedCommandException {
-        //extract GET data fields
-        byte[] DevAddrOrig = Arrays.copyOfRange(message, 7, 11);
-        byte PropDescOrig = message[11];
-        byte[] DevAddrDest = Arrays.copyOfRange(message, 12, 16);
-        byte PropDescDest = message[16];
-        byte[] value = Arrays.copyOfRange(message, 17, message.length-2);
-        
+    public void ProcessGet(DomoBusPacket packet) throws UnsupportedCommandException {
         //received a GET response
-        if(Globals.IsBitSet(message[6], Globals.ACK_POS)) {
-            if(!Globals.IsBitSet(message[6], Globals.ERROR_POS)) {
+        if(packet.IsAck()) {
+            if(!packet.IsError()) {
                 //received a successful response
-                manager.Log(Globals.LogType.COMMAND, "Processed GET command response: "+Arrays.copyOfRange(message, 7, message.length-2));
-                API.DComm_callback_process_ANSWER_GET(DevAddrOrig, PropDescOrig, DevAddrDest, PropDescDest, value);
+                manager.Log(Globals.LogType.COMMAND, "Processed GET command response "+packet.Sequence());
+                API.DComm_callback_process_ANSWER_GET(packet.DevAddrOrig(), packet.PropDescOrig(), packet.DevAddrDest(), packet.PropDescDest(), packet.Value());
                 return;
             }
             else {
                 //received an error
-                manager.Log(Globals.LogType.COMMAND, "Processed GET command error response: "+Arrays.copyOfRange(message, 7, message.length-2));
-                manager.DComm_callback_process_ERROR(Globals.ERROR_GET_COMMAND, message);
+                manager.Log(Globals.LogType.COMMAND, "Processed GET command error response "+packet.Sequence());
+                manager.DComm_callback_process_ERROR(Globals.ERROR_GET_COMMAND, packet.ToArray());
                 return;
             }
         }
         
         //transmit GET command
-        byte[] response = API.DComm_callback_process_GET(DevAddrOrig, PropDescOrig, DevAddrDest, PropDescDest);
+        byte[] response = API.DComm_callback_process_GET(packet.DevAddrOrig(), packet.PropDescOrig(), packet.DevAddrDest(), packet.PropDescDest());
         
         //prepare response
-        byte CTR = (byte) (message[6] + Globals.ACK_CTR);
+        byte CTR = (byte) (packet.Control() + Globals.ACK_CTR);
         byte[] data;
         
         //positive response
@@ -263,7 +425,7 @@ public class Worker extends Thread{
             //add response value
             data = new byte[10+response.length];
             System.arraycopy(response, 0, data, 10, response.length);
-            manager.Log(Globals.LogType.COMMAND, "Responding to GET command with current value: "+data);
+            manager.Log(Globals.LogType.COMMAND, "Responding to GET command "+packet.Sequence()+" with current value.");
         }
         
         //error response
@@ -273,49 +435,42 @@ public class Worker extends Thread{
             //add null response value
             data = new byte[11];
             data[10] = 0;
-            manager.Log(Globals.LogType.COMMAND, "Responding to GET command with an error: "+data);
+            manager.Log(Globals.LogType.COMMAND, "Responding to GET command "+packet.Sequence()+" with an error.");
         }
 
         //copy devices data
-        System.arraycopy(message, 7, data, 0, 10);
+        packet.CopyRange(7, 17, data, 0);
 
         //send response
-        int dest = Globals.BytesToInt(message, 3);
-        manager.CreateMessage(dest, message[5], CTR, data);        
+        manager.CreateMessage(packet.Origin(), packet.Sequence(), CTR, data);        
     };
     
-    public void ProcessSet(byte[] message) throws UnsupportedCommandException {
-        //extract SET data fields
-        byte[] DevAddrOrig = Arrays.copyOfRange(message, 7, 11);
-        byte PropDescOrig = message[11];
-        byte[] DevAddrDest = Arrays.copyOfRange(message, 12, 16);
-        byte PropDescDest = message[16];
-        byte[] value = Arrays.copyOfRange(message, 17, message.length-2);
-        
+    public void ProcessSet(DomoBusPacket packet) throws UnsupportedCommandException {
         //received a SET response
-        if(Globals.IsBitSet(message[6], Globals.ACK_POS)) {        
+        if(packet.IsAck()) {        
             //received a SET error
-            if(Globals.IsBitSet(message[6], Globals.ERROR_POS)) {
-                manager.Log(Globals.LogType.COMMAND, "Processed SET command error response: "+Arrays.copyOfRange(message, 7, message.length-2));
-                API.DComm_callback_process_ERROR(Globals.ERROR_SET_COMMAND, message);
+            if(packet.IsError()) {
+                manager.Log(Globals.LogType.COMMAND, "Processed SET command error response "+packet.Sequence());
+                API.DComm_callback_process_ERROR(Globals.ERROR_SET_COMMAND, packet.ToArray());
             }
-            else manager.Log(Globals.LogType.COMMAND, "Processed SET command response: "+Arrays.copyOfRange(message, 7, message.length-2));
+            else manager.Log(Globals.LogType.COMMAND, "Processed SET command response "+packet.Sequence());
             return;
         }
         
+        //extract SET data fields
+        byte[] DevAddrOrig = packet.DevAddrOrig();
+        byte PropDescOrig = packet.PropDescOrig();
+        byte[] value = packet.Value();
+        
         //transmit SET command
-        byte response = API.DComm_callback_process_SET(DevAddrOrig, PropDescOrig, DevAddrDest, PropDescDest, value);
+        byte response = API.DComm_callback_process_SET(DevAddrOrig, PropDescOrig, packet.DevAddrDest(), packet.PropDescDest(), value);
         
         //set response CTR
-        byte CTR = (byte) (message[6] + response);
+        byte CTR = (byte) (packet.Control() + response);
         
-        //add command data
-        byte[] data = Arrays.copyOfRange(message, 7, message.length-1);
-
-        //send response
-        manager.Log(Globals.LogType.COMMAND, "Responding to SET command: "+data);
-        int dest = Globals.BytesToInt(message, 3);
-        manager.CreateMessage(dest, message[5], CTR, data);
+        //send response with the command data
+        manager.Log(Globals.LogType.COMMAND, "Responding to SET command "+packet.Sequence());
+        manager.CreateMessage(packet.Origin(), packet.Sequence(), CTR, packet, 7, packet.Length()-1);
         
         //Send notifications if there was not error
         if(!Globals.IsBitSet(CTR, Globals.ERROR_POS)) {
@@ -324,14 +479,9 @@ public class Worker extends Thread{
         }
     };
     
-    public void ProcessNotify(byte[] data) throws UnsupportedCommandException {
-        //extract NOTIFY fields
-        byte[] DevAddr = Arrays.copyOf(data, 4);
-        byte PropDesc = data[4];
-        byte[] value = Arrays.copyOfRange(data, 5, data.length);
-        
+    public void ProcessNotify(DomoBusPacket packet) throws UnsupportedCommandException {
         //transmit NOTIFY command
-        API.DComm_callback_process_NOTIFY(DevAddr, PropDesc, value);
+        API.DComm_callback_process_NOTIFY(packet.NotifyDevAddr(), packet.NotifyPropDesc(), packet.NotifyValue());
     };
     
     public boolean ProcessExec(int appId, byte function, byte[] arguments) throws UnsupportedCommandException {
@@ -363,6 +513,16 @@ public class Worker extends Thread{
                 manager.Unsubscribe(appId);
                 return true;
                 
+            case Globals.DCOMM_AGGREGATION:
+                //Supervisor splits datagrams of up to the given size, we do too
+                if(arguments.length != 2) return false;
+                manager.EnableAggregation(appId, Globals.BytesToInt(arguments, 0));
+                return true;
+                
+            case Globals.DCOMM_HEARTBEAT:
+                //Supervisor checking we are alive, the acknowledgement is the answer
+                return true;
+                
             case Globals.DCOMM_LIST_PUBLISHERS:
                 //list of publishers returned by supervisor
                 return API.DComm_callback_process_EXEC(function, arguments);